@@ -41,7 +41,7 @@ public class Attribute implements Content {
     }
 
     private String valueToXML() {
-        return value.replaceAll("&", "&amp;").replaceAll("<", "&lt;").replaceAll(">", "&gt;").replaceAll("\"", "&quot;");
+        return XmlOutput.escape(value, true);
     }
 
 }
@@ -0,0 +1,159 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Supplies input to a {@link Utf8Tokenizer}: streams are fed chunk by
+ * chunk, while mapped files are read in place.
+ */
+abstract class ByteInput implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The next chunk of input, or null when the input is exhausted */
+    abstract ByteBuffer read() throws IOException;
+
+    /** Returns a tokenizer that starts with <code>first</code>, the chunk returned by the first {@link #read()} */
+    Utf8Tokenizer tokenizer(ByteBuffer first) {
+        Utf8Tokenizer tokenizer = new Utf8Tokenizer();
+        tokenizer.feed(first);
+        return tokenizer;
+    }
+
+    /** Gives the tokenizer more input, after it returned {@link Utf8Tokenizer#NEED_INPUT} */
+    void supply(Utf8Tokenizer tokenizer) throws IOException {
+        ByteBuffer chunk = read();
+        if (chunk == null) {
+            tokenizer.endOfInput();
+        } else {
+            tokenizer.feed(chunk);
+        }
+    }
+
+    /** Returns the next event from the tokenizer, supplying input until it has a complete token */
+    int next(Utf8Tokenizer tokenizer) throws IOException {
+        int event = tokenizer.next();
+        while (event == Utf8Tokenizer.NEED_INPUT) {
+            supply(tokenizer);
+            event = tokenizer.next();
+        }
+        return event;
+    }
+
+    /** Skips the rest of the current element with {@link Utf8Tokenizer#skipElement()}, supplying input as needed */
+    void skipElement(Utf8Tokenizer tokenizer) throws IOException {
+        while (tokenizer.skipElement() == Utf8Tokenizer.NEED_INPUT) {
+            supply(tokenizer);
+        }
+    }
+
+    static ByteInput of(InputStream inputStream) {
+        return new StreamInput(inputStream);
+    }
+
+    /** Memory maps the file, or decompresses it if the name ends with .gz */
+    static ByteInput open(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(".gz")) {
+            return new StreamInput(new GZIPInputStream(Files.newInputStream(path)));
+        }
+        return map(path, MappedInput.REGION_SIZE);
+    }
+
+    /** Memory maps the file in regions of <code>regionSize</code> bytes */
+    static ByteInput map(Path path, long regionSize) throws IOException {
+        return new MappedInput(FileChannel.open(path, StandardOpenOption.READ), regionSize);
+    }
+
+    private static class StreamInput extends ByteInput {
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        StreamInput(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        ByteBuffer read() throws IOException {
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+            }
+            return length == 0 ? null : ByteBuffer.wrap(buffer, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Maps the file region by region, so files larger than 2GB can be read.
+     * The tokenizer reads each region in place. When a token continues past
+     * the end of a region, the next region is mapped from the start of the
+     * token, so nothing is copied to the heap.
+     */
+    private static class MappedInput extends ByteInput {
+        private static final long REGION_SIZE = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private final long regionSize;
+        private long regionStart;
+        private long regionEnd;
+
+        MappedInput(FileChannel channel, long regionSize) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.regionSize = regionSize;
+        }
+
+        /** Returns the next region, for input that is transcoded instead of tokenized in place */
+        @Override
+        ByteBuffer read() throws IOException {
+            if (regionEnd >= size) return null;
+            return map(regionEnd, regionSize);
+        }
+
+        @Override
+        Utf8Tokenizer tokenizer(ByteBuffer first) {
+            return new Utf8Tokenizer(first, regionEnd >= size);
+        }
+
+        @Override
+        void supply(Utf8Tokenizer tokenizer) throws IOException {
+            if (regionEnd >= size) {
+                tokenizer.endOfInput();
+                return;
+            }
+            long start = regionStart + tokenizer.getRetainedPosition();
+            // A token longer than a region gets a larger one
+            tokenizer.continueWith(map(start, Math.max(regionSize, 2 * (regionEnd - start))), regionEnd >= size);
+        }
+
+        private ByteBuffer map(long start, long length) throws IOException {
+            length = Math.min(Math.min(length, Integer.MAX_VALUE), size - start);
+            MappedByteBuffer region = channel.map(MapMode.READ_ONLY, start, length);
+            regionStart = start;
+            regionEnd = start + length;
+            return region;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
@@ -1,11 +1,17 @@
 package org.eaxy;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nonnull;
 
@@ -17,6 +23,7 @@ public class Document {
     private final List<String> dtds = new ArrayList<String>();
     public static final String LINE_SEPARATOR = System.getProperty("line.separator");
     private URL baseUrl;
+    private DocumentIndex index;
 
     public Document(Element root) {
         rootElement = root;
@@ -55,6 +62,22 @@ public class Document {
 
     public void setRootElement(Element rootElement) {
         this.rootElement = rootElement;
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Attaches a {@link DocumentIndex} to the document, if it doesn't have
+     * one, and returns it. Queries on the document then use the index.
+     */
+    @Nonnull
+    public synchronized DocumentIndex index() {
+        if (index == null) {
+            index = new DocumentIndex(this);
+            index.update();
+        }
+        return index;
     }
 
     @Nonnull
@@ -101,20 +124,83 @@ public class Document {
         visit(new WriterXmlVisitor(writer));
     }
 
+    /**
+     * Writes the document in its encoding. UTF-8, the default, is encoded
+     * directly into a byte buffer, without building the document as a string.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        if (!Utf8Reader.isUtf8(getEncoding())) {
+            Writer writer = new OutputStreamWriter(output, getEncoding());
+            writeTo(writer);
+            writer.flush();
+            return;
+        }
+        writeTo(Utf8Output.to(output));
+    }
+
+    /**
+     * Writes large documents with parts of the tree written concurrently on
+     * the pool. The output is the same as with {@link #writeTo(OutputStream)},
+     * which is also used for small documents and encodings other than UTF-8.
+     */
+    public void writeTo(OutputStream output, ForkJoinPool pool) throws IOException {
+        if (!Utf8Reader.isUtf8(getEncoding())) {
+            writeTo(output);
+            return;
+        }
+        ParallelXmlWriter.write(this, output, pool);
+    }
+
+    /** Writes the document in its encoding, see {@link #writeTo(OutputStream)} */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        if (!Utf8Reader.isUtf8(getEncoding())) {
+            Writer writer = Channels.newWriter(channel, getEncoding());
+            writeTo(writer);
+            writer.flush();
+            return;
+        }
+        writeTo(Utf8Output.to(channel));
+    }
+
+    /**
+     * Writes the document in its encoding, see {@link #writeTo(OutputStream)}.
+     * Throws {@link java.nio.BufferOverflowException} if the buffer is too small.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        try {
+            if (!Utf8Reader.isUtf8(getEncoding())) {
+                buffer.put(toXML().getBytes(getEncoding()));
+                return;
+            }
+            writeTo(Utf8Output.to(buffer));
+        } catch (IOException e) {
+            throw new CanNeverHappenException("ByteBuffer doesn't throw IOException", e);
+        }
+    }
+
+    private void writeTo(Utf8Output output) throws IOException {
+        visit(new WriterXmlVisitor(output));
+        output.flush();
+    }
+
     public void visit(XmlVisitor visitor) throws IOException {
         visitor.visitDocument(this);
     }
 
     public void writeHeader(Writer writer) throws IOException {
-        writer.append("<?xml version=\"");
-        writer.append(getVersion());
-        writer.append("\" encoding=\"");
-        writer.append(getEncoding());
-        writer.append("\"?>");
-        writer.append(LINE_SEPARATOR);
+        writeHeader(new WriterOutput(writer));
+    }
+
+    void writeHeader(XmlOutput output) throws IOException {
+        output.write("<?xml version=\"");
+        output.write(getVersion());
+        output.write("\" encoding=\"");
+        output.write(getEncoding());
+        output.write("\"?>");
+        output.write(LINE_SEPARATOR);
         for (String dtd : dtds) {
-            writer.append(dtd);
-            writer.append(LINE_SEPARATOR);
+            output.write(dtd);
+            output.write(LINE_SEPARATOR);
         }
     }
 
@@ -0,0 +1,244 @@
+package org.eaxy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Looks up the elements of a document by id, tag name or attribute value
+ * without scanning the tree. Create it with {@link Document#index()}. While
+ * an index is attached, queries like <code>find("...", "input[name=x]")</code>
+ * and {@link Element#select(Object)} use it instead of visiting every
+ * descendant.
+ *
+ * <p>The index is built in one pass over the document when it is created.
+ * Changes to the tree through the {@link Element} methods mark it as stale,
+ * and it is rebuilt on the next lookup.</p>
+ */
+public class DocumentIndex {
+
+    /** Positions in document order. Only the first <code>size</code> entries are used */
+    static final class Positions {
+        int[] values = new int[4];
+        int size;
+
+        void add(int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = position;
+        }
+    }
+
+    /** The index of the document as it was when it was built */
+    static final class Snapshot {
+        final Element[] elements;
+        /** Position of the parent of each element, -1 for the root */
+        final int[] parents;
+        /** Position after the last descendant of each element */
+        final int[] ends;
+        final Map<Element, Integer> positions;
+        final Map<String, Positions> tagNames = new HashMap<>();
+        final Map<String, Map<String, Positions>> attributes = new HashMap<>();
+        final Map<String, Element> ids = new HashMap<>();
+        /** The same element object appears more than once in the tree, so positions are ambiguous */
+        boolean ambiguous;
+
+        Snapshot(int size) {
+            elements = new Element[size];
+            parents = new int[size];
+            ends = new int[size];
+            positions = new IdentityHashMap<>(size);
+        }
+
+        Positions tagName(String localName) {
+            Positions positions = tagNames.get(localName);
+            return positions != null ? positions : new Positions();
+        }
+
+        Positions attribute(String localName, String value) {
+            Map<String, Positions> values = attributes.get(localName);
+            Positions positions = values != null ? values.get(value) : null;
+            return positions != null ? positions : new Positions();
+        }
+    }
+
+    private final Document document;
+    private volatile Snapshot snapshot;
+
+    DocumentIndex(Document document) {
+        this.document = document;
+    }
+
+    /** Returns the first element with the id attribute, or null */
+    @Nullable
+    public Element getById(String id) {
+        return current().ids.get(id);
+    }
+
+    /** Returns the elements with the name, in document order */
+    @Nonnull
+    public List<Element> getElements(QualifiedName name) {
+        Snapshot snapshot = current();
+        Element[] matching = select(snapshot, snapshot.tagNames.get(name.getName()));
+        int count = 0;
+        for (Element element : matching) {
+            if (name.matches(element.getName())) {
+                matching[count++] = element;
+            }
+        }
+        return Arrays.asList(Arrays.copyOf(matching, count));
+    }
+
+    /** Returns the elements where the attribute has the value, in document order */
+    @Nonnull
+    public List<Element> getElements(String attributeName, String value) {
+        Snapshot snapshot = current();
+        Map<String, Positions> values = snapshot.attributes.get(attributeName);
+        return Arrays.asList(select(snapshot, values != null ? values.get(value) : null));
+    }
+
+    /**
+     * Returns the positions of the elements that may match the filter,
+     * and the parent positions and elements, so the caller can build
+     * {@link ElementPath}s. Returns null if the index can't answer for
+     * <code>root</code>.
+     */
+    @Nullable
+    IndexedElements descendants(Element root, ElementFilter filter) {
+        Snapshot snapshot = current();
+        if (snapshot.ambiguous) return null;
+        Integer rootPosition = snapshot.positions.get(root);
+        if (rootPosition == null) return null;
+        Positions candidates = filter.candidates(snapshot);
+        if (candidates == null) return null;
+        int start = Arrays.binarySearch(candidates.values, 0, candidates.size, rootPosition + 1);
+        if (start < 0) start = -start - 1;
+        return new IndexedElements(snapshot, candidates, start, snapshot.ends[rootPosition]);
+    }
+
+    /** Builds the index now if it is stale, instead of on the next lookup */
+    void update() {
+        current();
+    }
+
+    /** Called when an element in the document changes */
+    void invalidate() {
+        snapshot = null;
+    }
+
+    /** Iterates over candidates inside one subtree, giving access to their ancestors */
+    static final class IndexedElements {
+        private final Snapshot snapshot;
+        private final Positions candidates;
+        private final int end;
+        private int next;
+
+        private IndexedElements(Snapshot snapshot, Positions candidates, int start, int end) {
+            this.snapshot = snapshot;
+            this.candidates = candidates;
+            this.next = start;
+            this.end = end;
+        }
+
+        /** Returns the position of the next candidate, or -1 */
+        int next() {
+            if (next < candidates.size && candidates.values[next] < end) {
+                return candidates.values[next++];
+            }
+            return -1;
+        }
+
+        Element element(int position) {
+            return snapshot.elements[position];
+        }
+
+        int parent(int position) {
+            return snapshot.parents[position];
+        }
+    }
+
+    private static Element[] select(Snapshot snapshot, @Nullable Positions positions) {
+        if (positions == null) return new Element[0];
+        Element[] result = new Element[positions.size];
+        for (int i = 0; i < positions.size; i++) {
+            result[i] = snapshot.elements[positions.values[i]];
+        }
+        return result;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = build(document.getRootElement());
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot build(Element root) {
+        Snapshot result = new Snapshot(count(root));
+        add(result, root, -1, 0);
+        return result;
+    }
+
+    private int add(Snapshot snapshot, Element element, int parent, int position) {
+        element.setIndex(this);
+        snapshot.elements[position] = element;
+        snapshot.parents[position] = parent;
+        if (snapshot.positions.put(element, position) != null) {
+            snapshot.ambiguous = true;
+        }
+        addPosition(snapshot.tagNames, element.tagName(), position);
+        for (QualifiedName attrName : element.attrNames()) {
+            String value = element.attr(attrName);
+            Map<String, Positions> values = snapshot.attributes.get(attrName.getName());
+            if (values == null) {
+                values = new HashMap<>();
+                snapshot.attributes.put(attrName.getName(), values);
+            }
+            addPosition(values, value, position);
+            if (attrName.getName().equals("id") && !snapshot.ids.containsKey(value)) {
+                snapshot.ids.put(value, element);
+            }
+        }
+        int next = position + 1;
+        for (int i = 0, count = element.childCount(); i < count; i++) {
+            if (element.child(i) instanceof Element) {
+                next = add(snapshot, (Element) element.child(i), position, next);
+            }
+        }
+        snapshot.ends[position] = next;
+        return next;
+    }
+
+    private static void addPosition(Map<String, Positions> map, String key, int position) {
+        Positions positions = map.get(key);
+        if (positions == null) {
+            positions = new Positions();
+            map.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static int count(Element element) {
+        int result = 1;
+        for (int i = 0, count = element.childCount(); i < count; i++) {
+            if (element.child(i) instanceof Element) {
+                result += count((Element) element.child(i));
+            }
+        }
+        return result;
+    }
+
+}
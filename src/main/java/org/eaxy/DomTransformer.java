@@ -1,8 +1,5 @@
 package org.eaxy;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.eaxy.Xml.CDataElement;
 import org.eaxy.Xml.CommentElement;
 import org.eaxy.Xml.TextElement;
@@ -63,18 +60,17 @@ public class DomTransformer {
     }
 
     public static org.w3c.dom.Document toDom(Document document) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            org.w3c.dom.Document doc = factory.newDocumentBuilder().newDocument();
-            doc.setXmlVersion(document.getVersion());
-            doc.appendChild(createElement(doc, document.getRootElement()));
-            if (document.getBaseUrl() != null) {
-                doc.setDocumentURI(document.getBaseUrl().toExternalForm());
-            }
-            return doc;
-        } catch (ParserConfigurationException e) {
-            throw new CanNeverHappenException("Oh, just shut up!", e);
+        return toDom(document, ParserSettings.DEFAULT);
+    }
+
+    public static org.w3c.dom.Document toDom(Document document, ParserSettings settings) {
+        org.w3c.dom.Document doc = settings.newDocumentBuilder().newDocument();
+        doc.setXmlVersion(document.getVersion());
+        doc.appendChild(createElement(doc, document.getRootElement()));
+        if (document.getBaseUrl() != null) {
+            doc.setDocumentURI(document.getBaseUrl().toExternalForm());
         }
+        return doc;
     }
 
     public static org.w3c.dom.Element createElement(org.w3c.dom.Document doc, Element element) {
@@ -1,12 +1,19 @@
 package org.eaxy;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -16,29 +23,49 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class Element implements Node {
 
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Object[] NO_ATTRIBUTES = new Object[0];
+    private static final Namespace[] NO_NAMESPACES = new Namespace[0];
+    private static final int NO_LINE_NUMBER = -1;
+
     private final QualifiedName name;
+    /** The first <code>childCount</code> entries are the children, the array is replaced when full */
     @Nonnull
-    private final List<Node> children = new ArrayList<>();
-    private final Map<QualifiedName,Attribute> attributes = new LinkedHashMap<>();
+    private Node[] children = NO_CHILDREN;
+    private int childCount;
+    /** Attribute names and values as alternating {@link QualifiedName} and String entries */
+    private Object[] attributes = NO_ATTRIBUTES;
+    private int attributeCount;
     // TODO: Maybe namespaces should be part of the attributes - are namespaces attributes?
-    private final List<Namespace> namespaces = new ArrayList<>();
-    private Integer lineNumber;
+    private Namespace[] namespaces = NO_NAMESPACES;
+    private int lineNumber = NO_LINE_NUMBER;
+    /** The index of the document this element was in when the index was built */
+    private DocumentIndex index;
+
+    Element(QualifiedName name) {
+        this.name = name;
+        if (name.hasNamespace()) {
+            namespace(name.getNamespace());
+        }
+    }
 
     Element(QualifiedName name, Content... contents) {
         this(name, Objects.list(contents, Attribute.class),
                 Objects.list(contents, Namespace.class), null);
-        children.addAll(Objects.list(contents, Node.class));
+        addAll(Objects.list(contents, Node.class));
     }
 
     Element(QualifiedName name, Iterable<Content> contents) {
         this(name, Objects.list(contents, Attribute.class),
                 Objects.list(contents, Namespace.class), null);
-        children.addAll(Objects.list(contents, Node.class));
+        addAll(Objects.list(contents, Node.class));
     }
 
     Element(QualifiedName name, Collection<Attribute> attrs, Collection<Namespace> namespaces, @Nullable Integer lineNumber) {
         this.name = name;
-		this.lineNumber = lineNumber;
+        if (lineNumber != null) {
+            this.lineNumber = lineNumber;
+        }
         if (name.hasNamespace() && !namespaces.contains(name.getNamespace())) {
             namespace(name.getNamespace());
         }
@@ -49,9 +76,9 @@ public class Element implements Node {
     }
 
     public Element(QualifiedName name, int lineNumber) {
-    	this(name);
-		this.lineNumber = lineNumber;
-	}
+        this(name);
+        this.lineNumber = lineNumber;
+    }
 
     @Nonnull
 	public String tagName() {
@@ -59,7 +86,16 @@ public class Element implements Node {
     }
 
     public List<Namespace> getNamespaces() {
-        return namespaces;
+        return new NamespaceList();
+    }
+
+    /** Number of namespace declarations. With {@link #namespace(int)}, iterates without allocating */
+    int namespaceCount() {
+        return namespaces.length;
+    }
+
+    Namespace namespace(int index) {
+        return namespaces[index];
     }
 
     public Namespace getNamespace(String prefix) {
@@ -68,7 +104,7 @@ public class Element implements Node {
                 return namespace;
             }
         }
-        throw new IllegalArgumentException(prefix + " not found in " + namespaces);
+        throw new IllegalArgumentException(prefix + " not found in " + getNamespaces());
     }
 
     public void extendNamespaces(List<Namespace> additionalNamespaces) {
@@ -93,7 +129,7 @@ public class Element implements Node {
     }
 
     public Element add(Node node) {
-        this.children.add(node);
+        addChild(childCount, node);
         return this;
     }
 
@@ -107,34 +143,37 @@ public class Element implements Node {
     }
 
     public String printAttributes() {
-        if (attributes.isEmpty()) return "";
+        if (attributeCount == 0) return "";
         StringBuilder result = new StringBuilder();
-        for (Attribute attr : attributes.values()) {
-            result.append(" ").append(attr.toXML());
+        for (int i = 0; i < attributeCount; i++) {
+            result.append(" ").append(attribute(i).toXML());
         }
         return result.toString();
     }
 
     @Override
     public String text() {
+        if (childCount == 1) {
+            return children[0].text().toString();
+        }
         StringBuilder result = new StringBuilder();
-        for (Node element : children) {
-            result.append(element.text());
+        for (int i = 0; i < childCount; i++) {
+            result.append(children[i].text());
         }
         return result.toString();
     }
 
     public Element text(String string) {
-        this.children.clear();
-        this.children.add(Xml.text(string));
+        clearChildren();
+        add(Xml.text(string));
         return this;
     }
 
     @Nonnull
     public Map<String, String> attrs() {
         LinkedHashMap<String, String> result = new LinkedHashMap<>();
-        for (QualifiedName attrName : attributes.keySet()) {
-            result.put(attrName.getName(), attr(attrName));
+        for (int i = 0; i < attributeCount; i++) {
+            result.put(attributeName(i).getName(), attr(attributeName(i)));
         }
         return result;
     }
@@ -147,12 +186,12 @@ public class Element implements Node {
     @Nullable
     public String attr(QualifiedName key) {
         if (!key.hasNamespace()) {
-            for (Attribute attr : attributes.values()) {
-                if (attr.getKey().matches(key)) return attr.getValue();
+            for (int i = 0; i < attributeCount; i++) {
+                if (attributeName(i).matches(key)) return attributeValue(i);
             }
         }
-        Attribute attribute = attributes.get(key);
-        return attribute != null ? attribute.getValue() : null;
+        int index = indexOfAttribute(key);
+        return index >= 0 ? attributeValue(index) : null;
     }
 
     public Element attr(String name, @Nullable String value) {
@@ -161,9 +200,12 @@ public class Element implements Node {
 
     public Element attr(QualifiedName key, @Nullable String value) {
         if (value == null) {
-            attributes.remove(key);
+            removeAttribute(key);
         } else {
-            attr(new Attribute(key, value));
+            if (key.hasNamespace()) {
+                namespace(key.getNamespace());
+            }
+            putAttribute(key, value);
         }
         return this;
     }
@@ -172,12 +214,12 @@ public class Element implements Node {
         if (attribute.getKey().hasNamespace()) {
             namespace(attribute.getKey().getNamespace());
         }
-        attributes.put(attribute.getKey(), attribute);
+        putAttribute(attribute.getKey(), attribute.getValue());
         return this;
     }
 
     public boolean hasAttr(String name) {
-        return attributes.containsKey(new QualifiedName(name));
+        return indexOfAttribute(new QualifiedName(name)) >= 0;
     }
 
     public String toIndentedXML() {
@@ -200,6 +242,13 @@ public class Element implements Node {
         }
     }
 
+    /** Writes the element as UTF-8, without building it as a string */
+    public void writeTo(OutputStream output) throws IOException {
+        Utf8Output utf8 = Utf8Output.to(output);
+        visit(new WriterXmlVisitor(utf8));
+        utf8.flush();
+    }
+
     @Nonnull
     Element namespace(Namespace namespace) {
         if (namespace.getUri() == null) {
@@ -210,18 +259,21 @@ public class Element implements Node {
                 return this;
             }
         }
-        namespaces.add(namespace);
+        Namespace[] newNamespaces = Arrays.copyOf(namespaces, namespaces.length + 1);
+        newNamespaces[namespaces.length] = namespace;
+        namespaces = newNamespaces;
         return this;
     }
 
     @Override
     public String toString() {
-        if (children.isEmpty()) {
-            return "<" + printTag() + printAttributes() + " />" + (lineNumber != null ? "@" + lineNumber : "");
-        } else if (children.size() == 1 && !(children.get(0) instanceof Element)) {
-            return "<" + printTag() + printAttributes() + ">" + children.get(0).toString().trim() + "</" + printTag() + ">" + (lineNumber != null ? "@" + lineNumber : "");
+        String location = lineNumber != NO_LINE_NUMBER ? "@" + lineNumber : "";
+        if (childCount == 0) {
+            return "<" + printTag() + printAttributes() + " />" + location;
+        } else if (childCount == 1 && !(children[0] instanceof Element)) {
+            return "<" + printTag() + printAttributes() + ">" + children[0].toString().trim() + "</" + printTag() + ">" + location;
         } else {
-            return "<" + printTag() + printAttributes() + ">...</" + printTag() + ">" + (lineNumber != null ? "@" + lineNumber : "");
+            return "<" + printTag() + printAttributes() + ">...</" + printTag() + ">" + location;
         }
     }
 
@@ -249,18 +301,40 @@ public class Element implements Node {
     @Nonnull
     public Element take(Object selector) {
         Element result = select(selector);
-        children.remove(result);
+        delete(result);
         return result;
     }
 
     @Nonnull
     public List<? extends Element> elements() {
-        return Objects.list(children, Element.class);
+        List<Element> result = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            if (children[i] instanceof Element) {
+                result.add((Element) children[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Number of child nodes. With {@link #child(int)}, iterates without allocating */
+    int childCount() {
+        return childCount;
+    }
+
+    Node child(int index) {
+        return children[index];
+    }
+
+    boolean hasChildElements() {
+        for (int i = 0; i < childCount; i++) {
+            if (children[i] instanceof Element) return true;
+        }
+        return false;
     }
 
     @Nonnull
     public List<Node> children() {
-        return children;
+        return new ChildList();
     }
 
     public String className() {
@@ -327,7 +401,7 @@ public class Element implements Node {
         if (checked) {
             attr("checked", "checked");
         } else {
-            attributes.remove(new QualifiedName("checked"));
+            removeAttribute(new QualifiedName("checked"));
         }
         return this;
     }
@@ -340,7 +414,7 @@ public class Element implements Node {
         if (selected) {
             attr("selected", "selected");
         } else {
-            attributes.remove(new QualifiedName("selected"));
+            removeAttribute(new QualifiedName("selected"));
         }
         return this;
     }
@@ -348,14 +422,23 @@ public class Element implements Node {
     @Override
     public Element copy() {
         Element element = copyElement();
-        for (Node o : children) {
-            element.children.add(o.copy());
+        if (childCount > 0) {
+            element.children = new Node[childCount];
+            for (int i = 0; i < childCount; i++) {
+                element.children[i] = children[i].copy();
+            }
+            element.childCount = childCount;
         }
         return element;
     }
 
     public Element copyElement() {
-        return new Element(this.name, attributes.values(), namespaces, lineNumber);
+        Element element = new Element(name);
+        element.namespaces = namespaces.clone();
+        element.attributes = Arrays.copyOf(attributes, 2 * attributeCount);
+        element.attributeCount = attributeCount;
+        element.lineNumber = lineNumber;
+        return element;
     }
 
     Element attrs(Collection<Attribute> attributes) {
@@ -366,11 +449,232 @@ public class Element implements Node {
     }
 
     public void delete(Element existingChild) {
-        children.remove(existingChild);
+        for (int i = 0; i < childCount; i++) {
+            if (existingChild.equals(children[i])) {
+                removeChild(i);
+                return;
+            }
+        }
     }
 
     public Set<QualifiedName> attrNames() {
-        return attributes.keySet();
+        return new AttributeNameSet();
+    }
+
+    @Nullable
+    DocumentIndex getIndex() {
+        return index;
+    }
+
+    void setIndex(DocumentIndex index) {
+        this.index = index;
+    }
+
+    private void changed() {
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+    private void addChild(int index, Node node) {
+        changed();
+        if (childCount == children.length) {
+            children = Arrays.copyOf(children, childCount == 0 ? 1 : 2 * childCount);
+        }
+        System.arraycopy(children, index, children, index + 1, childCount - index);
+        children[index] = node;
+        childCount++;
+    }
+
+    private Node removeChild(int index) {
+        changed();
+        Node removed = children[index];
+        System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+        children[--childCount] = null;
+        return removed;
+    }
+
+    private void clearChildren() {
+        changed();
+        Arrays.fill(children, 0, childCount, null);
+        childCount = 0;
+    }
+
+    /** Number of attributes. With {@link #attributeName(int)} and {@link #attributeValue(int)}, iterates without allocating */
+    int attributeCount() {
+        return attributeCount;
+    }
+
+    QualifiedName attributeName(int index) {
+        return (QualifiedName) attributes[2 * index];
+    }
+
+    String attributeValue(int index) {
+        return (String) attributes[2 * index + 1];
+    }
+
+    private Attribute attribute(int index) {
+        return new Attribute(attributeName(index), attributeValue(index));
+    }
+
+    private int indexOfAttribute(Object key) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeName(i).equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private void putAttribute(QualifiedName key, String value) {
+        changed();
+        int index = indexOfAttribute(key);
+        if (index < 0) {
+            index = attributeCount++;
+            if (2 * index == attributes.length) {
+                attributes = Arrays.copyOf(attributes, index == 0 ? 2 : 4 * index);
+            }
+        }
+        attributes[2 * index] = key;
+        attributes[2 * index + 1] = value;
+    }
+
+    private boolean removeAttribute(Object key) {
+        int index = indexOfAttribute(key);
+        if (index < 0) return false;
+        removeAttributeAt(index);
+        return true;
+    }
+
+    private void removeAttributeAt(int index) {
+        changed();
+        System.arraycopy(attributes, 2 * index + 2, attributes, 2 * index, 2 * (attributeCount - index - 1));
+        attributeCount--;
+        attributes[2 * attributeCount] = null;
+        attributes[2 * attributeCount + 1] = null;
+    }
+
+    /** Live view of the children, so changes go directly to the element */
+    private class ChildList extends AbstractList<Node> implements RandomAccess {
+        @Override
+        public Node get(int index) {
+            checkIndex(index, childCount);
+            return children[index];
+        }
+
+        @Override
+        public int size() {
+            return childCount;
+        }
+
+        @Override
+        public Node set(int index, Node node) {
+            checkIndex(index, childCount);
+            changed();
+            Node previous = children[index];
+            children[index] = node;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Node node) {
+            checkIndex(index, childCount + 1);
+            addChild(index, node);
+        }
+
+        @Override
+        public Node remove(int index) {
+            checkIndex(index, childCount);
+            return removeChild(index);
+        }
+
+        @Override
+        public void clear() {
+            clearChildren();
+        }
+    }
+
+    /** Live view of the namespace declarations */
+    private class NamespaceList extends AbstractList<Namespace> implements RandomAccess {
+        @Override
+        public Namespace get(int index) {
+            return namespaces[index];
+        }
+
+        @Override
+        public int size() {
+            return namespaces.length;
+        }
+
+        @Override
+        public void add(int index, Namespace namespace) {
+            checkIndex(index, namespaces.length + 1);
+            Namespace[] newNamespaces = new Namespace[namespaces.length + 1];
+            System.arraycopy(namespaces, 0, newNamespaces, 0, index);
+            newNamespaces[index] = namespace;
+            System.arraycopy(namespaces, index, newNamespaces, index + 1, namespaces.length - index);
+            namespaces = newNamespaces;
+        }
+
+        @Override
+        public Namespace remove(int index) {
+            checkIndex(index, namespaces.length);
+            Namespace removed = namespaces[index];
+            Namespace[] newNamespaces = new Namespace[namespaces.length - 1];
+            System.arraycopy(namespaces, 0, newNamespaces, 0, index);
+            System.arraycopy(namespaces, index + 1, newNamespaces, index, namespaces.length - index - 1);
+            namespaces = newNamespaces;
+            return removed;
+        }
+    }
+
+    /** Live view of the attribute names, in the order they were added */
+    private class AttributeNameSet extends AbstractSet<QualifiedName> {
+        @Override
+        public Iterator<QualifiedName> iterator() {
+            return new Iterator<QualifiedName>() {
+                private int next = 0;
+                private boolean canRemove;
+
+                @Override
+                public boolean hasNext() {
+                    return next < attributeCount;
+                }
+
+                @Override
+                public QualifiedName next() {
+                    if (next >= attributeCount) throw new NoSuchElementException();
+                    canRemove = true;
+                    return attributeName(next++);
+                }
+
+                @Override
+                public void remove() {
+                    if (!canRemove) throw new IllegalStateException();
+                    canRemove = false;
+                    removeAttributeAt(--next);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return attributeCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOfAttribute(o) >= 0;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return removeAttribute(o);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
     }
 
 
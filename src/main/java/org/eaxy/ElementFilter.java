@@ -2,10 +2,11 @@ package org.eaxy;
 
 import java.io.Reader;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -24,23 +25,46 @@ abstract class ElementFilter implements ElementQuery {
 
     public abstract boolean matches(Element element);
 
+    /**
+     * Returns the positions of all elements in the index that may match
+     * this filter, or null if the filter can't use the index
+     */
+    @Nullable
+    DocumentIndex.Positions candidates(DocumentIndex.Snapshot index) {
+        return null;
+    }
+
     @Override
     public String toString() {
         return filterName;
     }
 
-    @SuppressWarnings("null")
-	@Override @Nonnull
+    @Override @Nonnull
     public final ElementSet search(ElementSet elements) {
-        List<ElementPath> elementPaths = new ArrayList<ElementPath>();
-        for (ElementPath element : elements.getPaths()) {
-            for (@Nonnull Element child : element.leafElement().elements()) {
-                if (this.matches(child)) {
-                    elementPaths.add(new ElementPath(element, child));
+        final Iterator<ElementPath> parents = elements.pathIterator();
+        return elements.nestedSet(this, new ElementSet.Results() {
+            private ElementPath parent;
+            private int position;
+
+            @Override
+            protected ElementPath computeNext() {
+                while (true) {
+                    if (parent == null) {
+                        if (!parents.hasNext()) return null;
+                        parent = parents.next();
+                        position = 0;
+                    }
+                    Element element = parent.leafElement();
+                    while (position < element.childCount()) {
+                        Node child = element.child(position++);
+                        if (child instanceof Element && matches((Element) child)) {
+                            return new ElementPath(parent, (Element) child);
+                        }
+                    }
+                    parent = null;
                 }
             }
-        }
-        return elements.nestedSet(this, elementPaths);
+        });
     }
 
     @Override @Nonnull
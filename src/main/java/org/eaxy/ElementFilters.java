@@ -2,9 +2,20 @@ package org.eaxy;
 
 import java.io.Reader;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -53,7 +64,7 @@ public class ElementFilters {
 
     private static final class ElementDescendantQuery implements ElementQuery {
         private final ElementFilter filter;
-        private ElementQuery next;
+        private final ElementQuery next;
 
         private ElementDescendantQuery(ElementQuery filter) {
             if (filter instanceof ChildQuery) {
@@ -67,11 +78,7 @@ public class ElementFilters {
 
         @Override @Nonnull
         public ElementSet search(@Nonnull ElementSet elements) {
-            List<ElementPath> elementPaths = new ArrayList<>();
-            for (ElementPath element : elements.getPaths()) {
-                findDescendants(element, elementPaths);
-            }
-            return elements.nestedSet(this, elementPaths);
+            return elements.nestedSet(this, new DescendantResults(elements.pathIterator()));
         }
 
         @Override
@@ -79,16 +86,223 @@ public class ElementFilters {
             return position < path.size() && filter.matches(path.get(path.size()-1));
         }
 
-        @SuppressWarnings("null")
-		private void findDescendants(ElementPath element, List<ElementPath> elementPaths) {
-            for (Element child : element.leafElement().elements()) {
+        private ElementSet parallelSearch(ElementSet elements, ForkJoinPool pool, int threshold) {
+            List<ElementPath> elementPaths = new ArrayList<>();
+            for (ElementPath root : elements.getPaths()) {
+                Element element = root.leafElement();
+                if (element.getIndex() == null && hasMoreDescendants(element, threshold)) {
+                    elementPaths.addAll(pool.invoke(new DescendantTask(root, element, 0, element.childCount(), 0)));
+                } else {
+                    addDescendants(root, elementPaths);
+                }
+            }
+            return elements.nestedSet(this, elementPaths);
+        }
+
+        private void addDescendants(ElementPath root, List<ElementPath> elementPaths) {
+            DescendantResults results = new DescendantResults(Collections.singletonList(root).iterator());
+            while (results.hasNext()) {
+                elementPaths.add(results.next());
+            }
+        }
+
+        /**
+         * Searches a range of the children of an element and their descendants.
+         * While other workers are idle, the range is split in two, and a range
+         * with a single child continues with the child's children.
+         */
+        private final class DescendantTask extends RecursiveTask<List<ElementPath>> {
+            private static final long serialVersionUID = 1L;
+            private static final int MAX_SPLIT_DEPTH = 200;
+
+            private final ElementPath parentPath;
+            private final Element parent;
+            private final int from, to;
+            private final int splitDepth;
+
+            private DescendantTask(ElementPath parentPath, Element parent, int from, int to, int splitDepth) {
+                this.parentPath = parentPath;
+                this.parent = parent;
+                this.from = from;
+                this.to = to;
+                this.splitDepth = splitDepth;
+            }
+
+            @Override
+            protected List<ElementPath> compute() {
+                List<ElementPath> elementPaths = new ArrayList<>();
+                ElementPath path = parentPath;
+                Element parent = this.parent;
+                int from = this.from, to = this.to;
+                while (to - from == 1 && parent.child(from) instanceof Element) {
+                    Element child = (Element) parent.child(from);
+                    if (filter.matches(child)) {
+                        addMatches(path, child, elementPaths);
+                    }
+                    path = new ElementPath(path, child);
+                    parent = child;
+                    from = 0;
+                    to = child.childCount();
+                }
+                if (to - from >= 2 && splitDepth < MAX_SPLIT_DEPTH && getSurplusQueuedTaskCount() <= 2) {
+                    int middle = (from + to) >>> 1;
+                    DescendantTask first = new DescendantTask(path, parent, from, middle, splitDepth + 1);
+                    first.fork();
+                    List<ElementPath> second = new DescendantTask(path, parent, middle, to, splitDepth + 1).compute();
+                    elementPaths.addAll(first.join());
+                    elementPaths.addAll(second);
+                } else {
+                    for (int i = from; i < to; i++) {
+                        if (!(parent.child(i) instanceof Element)) continue;
+                        Element child = (Element) parent.child(i);
+                        if (filter.matches(child)) {
+                            addMatches(path, child, elementPaths);
+                        }
+                        if (child.childCount() > 0) {
+                            addDescendants(new ElementPath(path, child), elementPaths);
+                        }
+                    }
+                }
+                return elementPaths;
+            }
+        }
+
+        /**
+         * Finds the descendants of each element in document order, one match
+         * at a time. If the element's document has a {@link DocumentIndex},
+         * only the elements the index lists for the filter are visited.
+         * Otherwise the tree is walked with an explicit stack, so deep
+         * documents don't overflow the call stack. ElementPaths for the
+         * ancestors are only created when a descendant matches.
+         */
+        private final class DescendantResults extends ElementSet.Results {
+            private final Iterator<ElementPath> roots;
+            private final Deque<ElementPath> matches = new ArrayDeque<>();
+
+            private Element[] elements = new Element[16];
+            private int[] positions = new int[16];
+            private ElementPath[] paths = new ElementPath[16];
+            private int depth = -1;
+
+            private DocumentIndex.IndexedElements candidates;
+            private ElementPath indexedRoot;
+
+            private DescendantResults(Iterator<ElementPath> roots) {
+                this.roots = roots;
+            }
+
+            @Override
+            protected ElementPath computeNext() {
+                while (matches.isEmpty()) {
+                    if (candidates != null) {
+                        nextCandidate();
+                    } else if (depth >= 0) {
+                        nextDescendant();
+                    } else if (roots.hasNext()) {
+                        start(roots.next());
+                    } else {
+                        return null;
+                    }
+                }
+                return matches.removeFirst();
+            }
+
+            private void start(ElementPath root) {
+                Element element = root.leafElement();
+                DocumentIndex index = element.getIndex();
+                candidates = index != null ? index.descendants(element, filter) : null;
+                if (candidates != null) {
+                    indexedRoot = root;
+                } else {
+                    depth = 0;
+                    elements[0] = element;
+                    positions[0] = 0;
+                    paths[0] = root;
+                }
+            }
+
+            private void nextCandidate() {
+                int position = candidates.next();
+                if (position < 0) {
+                    candidates = null;
+                    indexedRoot = null;
+                    return;
+                }
+                Element child = candidates.element(position);
                 if (filter.matches(child)) {
-                    ElementSet search = next.search(new ElementSet(child));
-                    for (ElementPath elementPath : search.getPaths()) {
-                        elementPaths.add(new ElementPath(element, elementPath.leafElement()));
+                    addMatches(indexedPathTo(candidates.parent(position)), child, matches);
+                }
+            }
+
+            private ElementPath indexedPathTo(int position) {
+                List<Element> ancestors = new ArrayList<>();
+                for (int i = position; candidates.element(i) != indexedRoot.leafElement(); i = candidates.parent(i)) {
+                    ancestors.add(candidates.element(i));
+                }
+                ElementPath path = indexedRoot;
+                for (int i = ancestors.size() - 1; i >= 0; i--) {
+                    path = new ElementPath(path, ancestors.get(i));
+                }
+                return path;
+            }
+
+            private void nextDescendant() {
+                Element parent = elements[depth];
+                int position = positions[depth]++;
+                if (position >= parent.childCount()) {
+                    elements[depth] = null;
+                    paths[depth] = null;
+                    depth--;
+                    return;
+                }
+                if (!(parent.child(position) instanceof Element)) return;
+                Element child = (Element) parent.child(position);
+                if (filter.matches(child)) {
+                    addMatches(pathTo(depth), child, matches);
+                }
+                if (child.childCount() > 0) {
+                    if (++depth == elements.length) {
+                        elements = Arrays.copyOf(elements, 2 * depth);
+                        positions = Arrays.copyOf(positions, 2 * depth);
+                        paths = Arrays.copyOf(paths, 2 * depth);
                     }
+                    elements[depth] = child;
+                    positions[depth] = 0;
+                }
+            }
+
+            private ElementPath pathTo(int depth) {
+                int known = depth;
+                while (paths[known] == null) {
+                    known--;
+                }
+                for (int i = known + 1; i <= depth; i++) {
+                    paths[i] = new ElementPath(paths[i - 1], elements[i]);
+                }
+                return paths[depth];
+            }
+        }
+
+        /**
+         * Adds the results of the rest of the query below <code>match</code>.
+         * Like the rest of the query engine, the results are added as children
+         * of the parent of <code>match</code>
+         */
+        private void addMatches(ElementPath parentPath, Element match, Collection<ElementPath> elementPaths) {
+            if (next.getClass() == Identity.class) {
+                elementPaths.add(new ElementPath(parentPath, match));
+            } else if (next instanceof ElementFilter) {
+                ElementFilter childFilter = (ElementFilter) next;
+                for (int i = 0, count = match.childCount(); i < count; i++) {
+                    Node child = match.child(i);
+                    if (child instanceof Element && childFilter.matches((Element) child)) {
+                        elementPaths.add(new ElementPath(parentPath, (Element) child));
+                    }
+                }
+            } else {
+                for (ElementPath elementPath : next.search(new ElementSet(match)).getPaths()) {
+                    elementPaths.add(new ElementPath(parentPath, elementPath.leafElement()));
                 }
-                findDescendants(new ElementPath(element, child), elementPaths);
             }
         }
 
@@ -117,8 +331,8 @@ public class ElementFilters {
 
         @Override @Nonnull
         public ElementSet search(@Nonnull ElementSet elements) {
-            if (intValue() < elements.size()) {
-                ElementPath path = elements.getPaths().get(intValue());
+            ElementPath path = elements.pathAt(intValue());
+            if (path != null) {
                 return elements.nestedSet(this, Arrays.asList(path));
             } else {
                 return elements.nestedSet(this, new ArrayList<ElementPath>());
@@ -139,6 +353,26 @@ public class ElementFilters {
             throw new UnsupportedOperationException();
         }
 
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull Reader reader, @Nonnull ParserSettings settings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull URL url, @Nonnull ParserSettings settings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull Path path, @Nonnull ParserSettings settings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override @Nonnull
+        public ParallelXmlSpliterator iterateParallel(@Nonnull Path path, @Nonnull ParserSettings settings, @Nonnull Executor executor, boolean ordered) {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public boolean matches(List<Element> path, int position) {
             throw new UnsupportedOperationException();
@@ -171,7 +405,103 @@ public class ElementFilters {
         return tagName(filter);
     }
 
+    private static final int QUERY_CACHE_SIZE = 512;
+    /** Compiled queries for paths of strings and numbers. Queries are immutable, so they can be shared */
+    private static final Map<List<Object>, ElementQuery> queryCache = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the query like {@link ElementQuery#search(ElementSet)}, but splits
+     * descendant searches below elements with at least <code>threshold</code>
+     * descendants into tasks on the pool. The results are in document order.
+     */
+    static ElementSet parallelSearch(ElementQuery query, ElementSet elements, ForkJoinPool pool, int threshold) {
+        if (query instanceof ChildQuery) {
+            ChildQuery childQuery = (ChildQuery) query;
+            return parallelSearch(childQuery.child, parallelSearch(childQuery.parent, elements, pool, threshold), pool, threshold);
+        } else if (query instanceof ElementDescendantQuery) {
+            return ((ElementDescendantQuery) query).parallelSearch(elements, pool, threshold);
+        }
+        return query.search(elements);
+    }
+
+    /**
+     * Adds the steps of the query to the automaton. Returns false if the
+     * query has steps the automaton can't express, like positions after
+     * "..." or query classes from outside this package.
+     */
+    static boolean addSteps(ElementQuery query, QueryAutomaton.Builder automaton) {
+        while (true) {
+            if (query instanceof ChildQuery) {
+                ChildQuery childQuery = (ChildQuery) query;
+                if (childQuery.parent instanceof ElementFilter) {
+                    automaton.step((ElementFilter) childQuery.parent, false);
+                } else if (childQuery.parent instanceof ElementPositionFilter) {
+                    if (!automaton.position(((ElementPositionFilter) childQuery.parent).intValue())) return false;
+                } else {
+                    return false;
+                }
+                query = childQuery.child;
+            } else if (query instanceof ElementDescendantQuery) {
+                ElementDescendantQuery descendantQuery = (ElementDescendantQuery) query;
+                automaton.step(descendantQuery.filter, true);
+                query = descendantQuery.next;
+            } else if (query instanceof ElementFilter) {
+                automaton.step((ElementFilter) query, false);
+                return true;
+            } else if (query instanceof ElementPositionFilter) {
+                return automaton.position(((ElementPositionFilter) query).intValue());
+            } else {
+                return query.getClass() == Identity.class;
+            }
+        }
+    }
+
+    /** Counts descendants until there are more than <code>count</code> */
+    private static boolean hasMoreDescendants(Element root, int count) {
+        Deque<Element> remaining = new ArrayDeque<>();
+        remaining.push(root);
+        int found = 0;
+        while (!remaining.isEmpty()) {
+            Element element = remaining.pop();
+            for (int i = 0, childCount = element.childCount(); i < childCount; i++) {
+                if (element.child(i) instanceof Element) {
+                    if (++found > count) return true;
+                    remaining.push((Element) element.child(i));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the query for the path. Queries for paths of strings and
+     * numbers are cached, so repeating a selector doesn't parse it again.
+     */
     public static ElementQuery create(Object... path) {
+        if (!isCacheable(path)) {
+            return compile(path);
+        }
+        ElementQuery query = queryCache.get(Arrays.asList(path));
+        if (query == null) {
+            query = compile(path);
+            if (queryCache.size() >= QUERY_CACHE_SIZE) {
+                queryCache.clear();
+            }
+            queryCache.put(Arrays.asList(path.clone()), query);
+        }
+        return query;
+    }
+
+    private static boolean isCacheable(Object[] path) {
+        for (Object filter : path) {
+            if (!(filter instanceof String || filter instanceof Integer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ElementQuery compile(Object... path) {
         ElementQuery query = filter(path[path.length-1]);
         for (int i = path.length-2; i >= 0 ; i--) {
             Object filter = path[i];
@@ -272,6 +602,11 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return attr.getValue().equals(element.attr(attr.getKey()));
             }
+
+            @Override
+            DocumentIndex.Positions candidates(DocumentIndex.Snapshot index) {
+                return index.attribute(attr.getKey().getName(), attr.getValue());
+            }
         };
     }
 
@@ -284,6 +619,18 @@ public class ElementFilters {
                 }
                 return true;
             }
+
+            @Override
+            DocumentIndex.Positions candidates(DocumentIndex.Snapshot index) {
+                DocumentIndex.Positions result = null;
+                for (ElementFilter filter : filters) {
+                    DocumentIndex.Positions candidates = filter.candidates(index);
+                    if (candidates != null && (result == null || candidates.size < result.size)) {
+                        result = candidates;
+                    }
+                }
+                return result;
+            }
         };
     }
 
@@ -294,6 +641,11 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return element.getName().matches(tagName);
             }
+
+            @Override
+            DocumentIndex.Positions candidates(DocumentIndex.Snapshot index) {
+                return index.tagName(tagName);
+            }
         };
     }
 
@@ -303,6 +655,11 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return tagName.matches(element.getName());
             }
+
+            @Override
+            DocumentIndex.Positions candidates(DocumentIndex.Snapshot index) {
+                return index.tagName(tagName.getName());
+            }
         };
     }
 
@@ -1,8 +1,11 @@
 package org.eaxy;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 
@@ -13,11 +16,78 @@ public interface ElementQuery {
 
     boolean matches(List<Element> path, int position);
 
+    /**
+     * Returns the matching elements while parsing. Unlike
+     * {@link #search(ElementSet)}, an element that the query reaches in more
+     * than one way is returned once. See {@link XmlIterator}.
+     */
     @Nonnull
     XmlIterable iterate(@Nonnull Reader reader);
 
     @Nonnull
     XmlIterable iterate(@Nonnull URL url);
 
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Reader reader, @Nonnull ParserSettings settings) {
+        return XmlIterator.iterate(this, reader, settings);
+    }
+
+    @Nonnull
+    default XmlIterable iterate(@Nonnull URL url, @Nonnull ParserSettings settings) {
+        return XmlIterator.iterate(this, url, settings);
+    }
+
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Path path) {
+        return iterate(path, ParserSettings.DEFAULT);
+    }
+
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Path path, @Nonnull ParserSettings settings) {
+        return XmlIterator.iterate(this, path, settings);
+    }
+
+    /**
+     * Publishes the matching elements to subscribers, parsing on the
+     * executor only as they request elements. See {@link XmlFlow}.
+     */
+    @Nonnull
+    default XmlFlow.Publisher<Element> publish(@Nonnull Path path, @Nonnull Executor executor) {
+        return iterate(path).publish(executor);
+    }
+
+    @Nonnull
+    default XmlFlow.Publisher<Element> publish(@Nonnull Path path, @Nonnull ParserSettings settings, @Nonnull Executor executor) {
+        return iterate(path, settings).publish(executor);
+    }
+
+    @Nonnull
+    default XmlFlow.Publisher<Element> publish(@Nonnull URL url, @Nonnull ParserSettings settings, @Nonnull Executor executor) {
+        return iterate(url, settings).publish(executor);
+    }
+
+    /** The reader can only be read once, so the publisher only supports one subscriber */
+    @Nonnull
+    default XmlFlow.Publisher<Element> publish(@Nonnull Reader reader, @Nonnull ParserSettings settings, @Nonnull Executor executor) {
+        return iterate(reader, settings).publish(executor);
+    }
+
+    /**
+     * Scans the file on the calling thread and builds each matching element
+     * on the executor. See {@link ParallelXmlSpliterator}.
+     */
+    @Nonnull
+    default ParallelXmlSpliterator iterateParallel(@Nonnull Path path, @Nonnull Executor executor, boolean ordered) {
+        return iterateParallel(path, ParserSettings.DEFAULT, executor, ordered);
+    }
+
+    @Nonnull
+    default ParallelXmlSpliterator iterateParallel(@Nonnull Path path, @Nonnull ParserSettings settings, @Nonnull Executor executor, boolean ordered) {
+        try {
+            return new ParallelXmlSpliterator(this, ByteInput.open(path), settings, executor, ordered);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open " + path, e);
+        }
+    }
 
 }
@@ -3,12 +3,56 @@ package org.eaxy;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+/**
+ * The elements matching a query. The query is evaluated as results are
+ * needed: {@link #first()}, {@link #isPresent()} and {@link #single()} stop
+ * after one or two matches, while {@link #size()}, {@link #elements()},
+ * {@link #getPaths()} and iterating find all of them.
+ *
+ * <p>The results are not a snapshot: a result that hasn't been computed
+ * yet is found in the tree as it is when it's needed. If the tree is
+ * changed while a set is in use, call {@link #size()} first, so all the
+ * results are computed from the tree before the change. Computing results
+ * is synchronized, so several threads can read the same set as long as the
+ * tree doesn't change.</p>
+ */
 public class ElementSet implements Iterable<Element> {
 
+    /** Computes results on demand. {@link #computeNext()} returns null after the last result */
+    abstract static class Results implements Iterator<ElementPath> {
+        private ElementPath next;
+        private boolean done;
+
+        @Nullable
+        protected abstract ElementPath computeNext();
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = computeNext();
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public ElementPath next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ElementPath result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    /** Smaller trees are searched on the calling thread by {@link #parallelFind(Object...)} */
+    public static final int PARALLEL_THRESHOLD = 10_000;
+
     private static ElementSet NULL_ELEMENT_SET = new ElementSet(null, null) {
         @Override @Nonnull
         public List<Object> getPath() { return new ArrayList<Object>(); }
@@ -16,6 +60,9 @@ public class ElementSet implements Iterable<Element> {
 
     @Nonnull
     private List<ElementPath> elementPaths = new ArrayList<>();
+    /** Results that haven't been computed yet, or null when elementPaths has all of them */
+    @Nullable
+    private Iterator<ElementPath> pending;
     private ElementSet parentSet = NULL_ELEMENT_SET;
     private final Object filter;
 
@@ -35,6 +82,12 @@ public class ElementSet implements Iterable<Element> {
         this.elementPaths = elementPaths;
     }
 
+    private ElementSet(ElementSet parent, ElementQuery filter, Iterator<ElementPath> pending) {
+        this.parentSet = parent;
+        this.filter = filter;
+        this.pending = pending;
+    }
+
     @Override
     public Iterator<Element> iterator() {
         return elements().iterator();
@@ -45,13 +98,83 @@ public class ElementSet implements Iterable<Element> {
         return ElementFilters.create(path).search(this);
     }
 
+    /**
+     * Like {@link #find(Object...)}, but searches below elements with more
+     * than {@link #PARALLEL_THRESHOLD} descendants in parallel on the common
+     * {@link ForkJoinPool}. The results are in document order.
+     */
+    @Nonnull
+    public ElementSet parallelFind(Object... path) {
+        return parallelFind(ElementFilters.create(path), ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Runs the query (see {@link Xml#compile(Object...)}) like
+     * {@link ElementQuery#search(ElementSet)}, but descendant searches ("...")
+     * below elements with more than <code>threshold</code> descendants are
+     * split into tasks on the pool. The results are in document order.
+     */
+    @Nonnull
+    public ElementSet parallelFind(ElementQuery query, ForkJoinPool pool, int threshold) {
+        return ElementFilters.parallelSearch(query, this, pool, threshold);
+    }
+
     @Nonnull
     public ElementSet nestedSet(ElementQuery filter, List<ElementPath> elementPaths) {
         return new ElementSet(this, filter, elementPaths);
     }
 
+    /** Returns a set where the results are computed as they are needed */
+    @Nonnull
+    ElementSet nestedSet(ElementQuery filter, Iterator<ElementPath> results) {
+        return new ElementSet(this, filter, results);
+    }
+
+    /** Iterates over the results, computing them as needed */
+    Iterator<ElementPath> pathIterator() {
+        return new Iterator<ElementPath>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return load(position + 1);
+            }
+
+            @Override
+            public ElementPath next() {
+                ElementPath path = pathAt(position);
+                if (path == null) throw new NoSuchElementException();
+                position++;
+                return path;
+            }
+        };
+    }
+
+    /** Returns the path at the position, or null if there are fewer results */
+    @Nullable
+    synchronized ElementPath pathAt(int position) {
+        return load(position + 1) ? elementPaths.get(position) : null;
+    }
+
+    /** Computes results until there are at least <code>count</code>. Returns false if there aren't that many */
+    private synchronized boolean load(int count) {
+        while (elementPaths.size() < count && pending != null) {
+            if (pending.hasNext()) {
+                elementPaths.add(pending.next());
+            } else {
+                pending = null;
+            }
+        }
+        return elementPaths.size() >= count;
+    }
+
+    private List<ElementPath> loadAll() {
+        load(Integer.MAX_VALUE);
+        return elementPaths;
+    }
+
     public ElementSet check() {
-        if (!elementPaths.isEmpty()) return this;
+        if (load(1)) return this;
         parentSet.check();
         String message = "Can't find <" + filter + "> below " + parentSet.getPath() + ".";
         message += " Actual elements: " + parentSet.printActualChildren();
@@ -60,7 +183,7 @@ public class ElementSet implements Iterable<Element> {
 
     private String printActualChildren() {
         List<String> children = new ArrayList<String>();
-        for (ElementPath path : elementPaths) {
+        for (ElementPath path : loadAll()) {
             for (Element subElement : path.leafElement().elements()) {
                 children.add(subElement.toString());
             }
@@ -78,7 +201,7 @@ public class ElementSet implements Iterable<Element> {
 
     public List<String> texts() {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : loadAll()) {
             result.add(element.leafElement().text().toString());
         }
         return result;
@@ -87,7 +210,7 @@ public class ElementSet implements Iterable<Element> {
     @Nonnull
     public List<String> attrs(String attrName) {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : loadAll()) {
             String attr = element.leafElement().attr(attrName);
             if (attr != null) result.add(attr);
         }
@@ -112,24 +235,24 @@ public class ElementSet implements Iterable<Element> {
     }
 
     private void checkMaxOneMatch() {
-        if (size() <= 1) return;
-        String message = "Too many matches for <" + filter + ">: " + elementPaths;
+        if (!load(2)) return;
+        String message = "Too many matches for <" + filter + ">: " + loadAll();
         throw new IllegalArgumentException(message);
     }
 
     @Nullable
     public ElementPath firstPath() {
         check();
-        return elementPaths.get(0);
+        return pathAt(0);
     }
 
     public List<ElementPath> getPaths() {
-        return elementPaths;
+        return loadAll();
     }
 
     @Nonnull
     public ElementSet attr(String key, String value) {
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : loadAll()) {
             element.leafElement().attr(key, value);
         }
         return this;
@@ -149,7 +272,7 @@ public class ElementSet implements Iterable<Element> {
 
     public List<String> tagNames() {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : loadAll()) {
             result.add(element.leafElement().getName().print());
         }
         return result;
@@ -157,17 +280,19 @@ public class ElementSet implements Iterable<Element> {
 
     public Element get(int pos) {
         check();
-        return elementPaths.get(pos).leafElement();
+        ElementPath path = pathAt(pos);
+        if (path == null) throw new IndexOutOfBoundsException("Index: " + pos + ", Size: " + size());
+        return path.leafElement();
     }
 
     public int size() {
-        return elementPaths.size();
+        return loadAll().size();
     }
 
     @Nonnull
     public List<Element> elements() {
         List<Element> elements = new ArrayList<>();
-        for (ElementPath path : elementPaths) {
+        for (ElementPath path : loadAll()) {
             elements.add(path.leafElement());
         }
         return elements;
@@ -179,7 +304,7 @@ public class ElementSet implements Iterable<Element> {
     }
 
     public boolean isEmpty() {
-        return size() == 0;
+        return !load(1);
     }
 
     public boolean isPresent() {
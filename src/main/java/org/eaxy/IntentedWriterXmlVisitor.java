@@ -9,48 +9,60 @@ import org.eaxy.Xml.TextElement;
 public class IntentedWriterXmlVisitor extends WriterXmlVisitor implements XmlVisitor {
 
     private final String indentation;
-    private String currentIndent = "";
+    private String currentIndent;
 
     public IntentedWriterXmlVisitor(Writer writer, String indentation) {
         super(writer);
         this.indentation = indentation;
+        this.currentIndent = "";
+    }
+
+    IntentedWriterXmlVisitor(XmlOutput output, NamespaceScope namespaceScope, String indentation, String currentIndent) {
+        super(output, namespaceScope);
+        this.indentation = indentation;
+        this.currentIndent = currentIndent;
     }
 
     @Override
     public void visitElement(Element element) throws IOException {
-        if (element.children().isEmpty()) {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + " />" + Document.LINE_SEPARATOR);
-        } else if (element.elements().isEmpty()) {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">");
+        writer.write(currentIndent);
+        writeStartTag(element);
+        if (element.childCount() == 0) {
+            writeEmptyTagEnd();
+            writer.write(Document.LINE_SEPARATOR);
+        } else if (!element.hasChildElements()) {
+            writer.write('>');
             visitChildren(element);
-            writer.write("</" + element.printTag() + ">" + Document.LINE_SEPARATOR);
+            writeEndTag(element);
+            writer.write(Document.LINE_SEPARATOR);
         } else {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">" + Document.LINE_SEPARATOR);
+            writer.write('>');
+            writer.write(Document.LINE_SEPARATOR);
             visitChildren(element);
-            writer.write(currentIndent + "</" + element.printTag() + ">" + Document.LINE_SEPARATOR);
+            writer.write(currentIndent);
+            writeEndTag(element);
+            writer.write(Document.LINE_SEPARATOR);
         }
     }
 
     @Override
     public void visitComment(CommentElement comment) throws IOException {
-        writer.write(currentIndent + "<!--" + comment.text() + "-->" + Document.LINE_SEPARATOR);
+        writer.write(currentIndent);
+        super.visitComment(comment);
+        writer.write(Document.LINE_SEPARATOR);
     }
 
     @Override
     public void visitText(TextElement textElement) throws IOException {
-        writer.write(textElement.text().trim().replaceAll("&", "&amp;")
-                .replaceAll("<", "&lt;")
-                .replaceAll(">", "&gt;"));
+        writeText(textElement.text().trim());
     }
 
     private void visitChildren(Element element) throws IOException {
-        printedNamespacesStack.push(element.getNamespaces());
         String oldIndent = currentIndent;
         currentIndent += indentation;
-        for (Node child : element.children()) {
-            child.visit(this);
+        for (int i = 0; i < element.childCount(); i++) {
+            element.child(i).visit(this);
         }
         currentIndent = oldIndent;
-        printedNamespacesStack.pop();
     }
 }
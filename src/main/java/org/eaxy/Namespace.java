@@ -28,6 +28,7 @@ public class Namespace implements Content {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (!(obj instanceof Namespace)) return false;
         Namespace other = ((Namespace) obj);
         return Objects.equals(uri, other.uri);
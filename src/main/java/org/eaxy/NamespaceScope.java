@@ -0,0 +1,77 @@
+package org.eaxy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The namespace declarations in scope while writing a document. Each prefix
+ * maps to the URI it's currently bound to, so checking if a declaration is
+ * needed doesn't depend on the depth or the number of namespaces. Each open
+ * element has a mark in the list of its declarations, which records the
+ * binding each declaration replaced, to restore them when the element ends.
+ */
+final class NamespaceScope {
+
+    /** The current URI of each prefix, null when unbound. The default namespace has the prefix null */
+    private final Map<String, String> uris = new HashMap<>();
+
+    private String[] prefixes = new String[16];
+    private String[] replacedUris = new String[16];
+    private int size;
+
+    private int[] marks = new int[16];
+    private int depth;
+
+    /**
+     * Returns a scope with the namespaces that are in scope now, for
+     * writing descendants of the current element separately
+     */
+    NamespaceScope copy() {
+        NamespaceScope copy = new NamespaceScope();
+        copy.uris.putAll(uris);
+        return copy;
+    }
+
+    /** Starts the declarations of an element */
+    void enter() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * depth);
+        }
+        marks[depth++] = size;
+    }
+
+    /** Removes the declarations of the innermost element */
+    void exit() {
+        int mark = marks[--depth];
+        while (size > mark) {
+            size--;
+            // Keeps the entry when unbinding, so declaring the prefix again doesn't allocate
+            uris.put(prefixes[size], replacedUris[size]);
+            prefixes[size] = null;
+            replacedUris[size] = null;
+        }
+    }
+
+    /**
+     * Binds the prefix of the namespace in the innermost element. Returns
+     * false if the prefix is already bound to the URI, and the namespace
+     * doesn't have to be declared.
+     */
+    boolean declare(Namespace namespace) {
+        String prefix = namespace.getPrefix();
+        String replaced = uris.put(prefix, namespace.getUri());
+        if (namespace.getUri().equals(replaced)) {
+            return false;
+        }
+        if (size == prefixes.length) {
+            prefixes = Arrays.copyOf(prefixes, 2 * size);
+            replacedUris = Arrays.copyOf(replacedUris, 2 * size);
+        }
+        prefixes[size] = prefix;
+        replacedUris[size] = replaced;
+        size++;
+        return true;
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Iterates over the elements matching a query, building them in parallel.
+ * The consuming thread scans the input with {@link Utf8Tokenizer}, cuts out
+ * the bytes of each matching element and hands them to the executor
+ * together with the namespaces in scope. Up to {@link #MAX_PENDING}
+ * elements are scanned ahead of the consumer.
+ *
+ * <p>In ordered mode, elements are returned in document order. Otherwise
+ * they are returned as soon as they are built. Unlike {@link XmlIterator},
+ * matches inside a matching element are not returned.</p>
+ */
+public class ParallelXmlSpliterator implements Spliterator<Element>, Closeable, XMLStreamConstants {
+
+    private static final int MAX_PENDING = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final Deque<Future<Element>> pending = new ArrayDeque<>();
+    private final StreamingMatcher matcher;
+    private final ParserSettings settings;
+    private final Executor executor;
+    private final CompletionService<Element> completionService;
+    private final ByteInput input;
+    private final Utf8Tokenizer tokenizer;
+    private boolean endOfDocument;
+    private boolean closed;
+
+    ParallelXmlSpliterator(ElementQuery query, ByteInput input, ParserSettings settings, Executor executor, boolean ordered) throws IOException {
+        this.matcher = StreamingMatcher.of(query);
+        // The elements are built on different threads, so they share a thread safe symbol table
+        this.settings = settings.getSymbolTable() != null ? settings : settings.withSymbolTable(new SymbolTable());
+        this.executor = executor;
+        this.completionService = ordered ? null : new ExecutorCompletionService<Element>(executor);
+        this.input = input;
+        this.tokenizer = Utf8Reader.tokenizer(input);
+        this.tokenizer.setSymbolTable(this.settings.getSymbolTable());
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Element> action) {
+        if (closed) return false;
+        try {
+            while (!endOfDocument && pending.size() < MAX_PENDING) {
+                scanNextElement();
+            }
+            if (pending.isEmpty()) {
+                close();
+                return false;
+            }
+            Future<Element> result;
+            if (completionService == null) {
+                result = pending.removeFirst();
+            } else {
+                result = completionService.take();
+                pending.remove(result);
+            }
+            action.accept(result.get());
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for element", e);
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnexpectedException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void scanNextElement() throws IOException {
+        while (true) {
+            switch (input.next(tokenizer)) {
+            case START_ELEMENT:
+                if (matcher.start(tokenizer.createElement(false))) {
+                    submit();
+                    return;
+                }
+                if (matcher.isSkipping()) {
+                    input.skipElement(tokenizer);
+                    matcher.end();
+                }
+                break;
+            case END_ELEMENT:
+                matcher.end();
+                break;
+            case END_DOCUMENT:
+                endOfDocument = true;
+                return;
+            default:
+                break;
+            }
+        }
+    }
+
+    private void submit() throws IOException {
+        final String[][] namespaces = tokenizer.getNamespaceContext();
+        final int lineNumber = tokenizer.getTokenLineNumber();
+        tokenizer.mark();
+        input.skipElement(tokenizer);
+        final ByteBuffer bytes = tokenizer.marked();
+        Callable<Element> task = () -> Utf8Reader.readElement(bytes, namespaces, lineNumber, settings);
+        if (completionService == null) {
+            FutureTask<Element> future = new FutureTask<>(task);
+            pending.add(future);
+            executor.execute(future);
+        } else {
+            pending.add(completionService.submit(task));
+        }
+    }
+
+    /** The parallelism is internal, so the spliterator is never split */
+    @Override
+    public Spliterator<Element> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return completionService == null ? ORDERED | NONNULL : NONNULL;
+    }
+
+    /** Cancels elements that are still being built and closes the input */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Future<Element> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        try {
+            input.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
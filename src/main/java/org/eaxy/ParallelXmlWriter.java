@@ -0,0 +1,167 @@
+package org.eaxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes a document as UTF-8 with the large parts written concurrently.
+ * The children of an element are grouped in runs of consecutive nodes of
+ * about the same size, and each run is written to its own buffer on the
+ * pool, with a copy of the namespaces in scope at its parent. Children too
+ * large for one run are split the same way. The calling thread writes the
+ * tags around the runs, and then the buffers in document order, so the
+ * output is the same as when writing sequentially.
+ */
+final class ParallelXmlWriter {
+
+    /** Smaller documents are written sequentially */
+    static final int MIN_PARALLEL_NODES = 10_000;
+    private static final int MIN_RUN_NODES = 1_000;
+
+    private final ForkJoinPool pool;
+    private final int runSize;
+    private final NamespaceScope namespaceScope = new NamespaceScope();
+
+    /** The buffers, in document order. The buffers of tags are complete when added */
+    private final List<CompletableFuture<ByteArrayOutputStream>> parts = new ArrayList<>();
+    /** Collects the tags around the runs, in the current buffer */
+    private ByteArrayOutputStream tags;
+    private final Utf8Output tagOutput = new Utf8Output(1024) {
+        @Override
+        protected void drain(byte[] bytes, int length) {
+            tags.write(bytes, 0, length);
+        }
+    };
+    private final WriterXmlVisitor tagWriter = new WriterXmlVisitor(tagOutput, namespaceScope);
+
+    private final List<Node> run = new ArrayList<>();
+    private int runNodes;
+    /** The subtrees that are larger than a run, which are split instead */
+    private final Set<Element> largeSubtrees = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ParallelXmlWriter(ForkJoinPool pool, int runSize) {
+        this.pool = pool;
+        this.runSize = runSize;
+    }
+
+    static void write(Document document, OutputStream output, ForkJoinPool pool) throws IOException {
+        int nodeCount = countNodes(document.getRootElement());
+        if (nodeCount < MIN_PARALLEL_NODES || pool.getParallelism() < 2) {
+            document.writeTo(output);
+            return;
+        }
+        int runSize = Math.max(MIN_RUN_NODES, nodeCount / (4 * pool.getParallelism()));
+        ParallelXmlWriter writer = new ParallelXmlWriter(pool, runSize);
+        writer.findLargeSubtrees(document.getRootElement());
+        writer.startTags();
+        document.writeHeader(writer.tagOutput);
+        writer.split(document.getRootElement());
+        writer.endTags();
+        try {
+            for (CompletableFuture<ByteArrayOutputStream> part : writer.parts) {
+                part.join().writeTo(output);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void split(Element element) throws IOException {
+        tagWriter.writeStartTag(element);
+        if (element.childCount() == 0) {
+            tagWriter.writeEmptyTagEnd();
+            return;
+        }
+        tagOutput.write('>');
+        for (int i = 0; i < element.childCount(); i++) {
+            Node child = element.child(i);
+            if (largeSubtrees.contains(child)) {
+                submitRun();
+                split((Element) child);
+            } else {
+                // Smaller subtrees are only counted here, as they are added to a run
+                run.add(child);
+                runNodes += countNodes(child);
+                if (runNodes >= runSize) {
+                    submitRun();
+                }
+            }
+        }
+        submitRun();
+        tagWriter.writeEndTag(element);
+    }
+
+    private void submitRun() throws IOException {
+        if (run.isEmpty()) return;
+        endTags();
+        Node[] nodes = run.toArray(new Node[run.size()]);
+        NamespaceScope scope = namespaceScope.copy();
+        parts.add(CompletableFuture.supplyAsync(() -> writeRun(nodes, scope, 64 * nodes.length), pool));
+        run.clear();
+        runNodes = 0;
+        startTags();
+    }
+
+    private static ByteArrayOutputStream writeRun(Node[] nodes, NamespaceScope scope, int sizeEstimate) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(sizeEstimate);
+        Utf8Output output = Utf8Output.to(buffer);
+        WriterXmlVisitor visitor = new WriterXmlVisitor(output, scope);
+        try {
+            for (Node node : nodes) {
+                node.visit(visitor);
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new CanNeverHappenException("ByteArrayOutputStream doesn't throw IOException", e);
+        }
+        return buffer;
+    }
+
+    private void startTags() {
+        tags = new ByteArrayOutputStream(256);
+    }
+
+    private void endTags() throws IOException {
+        tagOutput.flush();
+        if (tags.size() > 0) {
+            parts.add(CompletableFuture.completedFuture(tags));
+        }
+    }
+
+    /** Counts the nodes of each subtree once, and remembers the ones larger than a run. Returns the count for the element */
+    private int findLargeSubtrees(Element element) {
+        int count = 1;
+        for (int i = 0; i < element.childCount(); i++) {
+            Node child = element.child(i);
+            count += child instanceof Element ? findLargeSubtrees((Element) child) : 1;
+        }
+        if (count > runSize) {
+            largeSubtrees.add(element);
+        }
+        return count;
+    }
+
+    /** The number of elements and other nodes in the subtree */
+    private static int countNodes(Node node) {
+        if (!(node instanceof Element)) return 1;
+        Element element = (Element) node;
+        int count = 1;
+        for (int i = 0; i < element.childCount(); i++) {
+            count += countNodes(element.child(i));
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,218 @@
+package org.eaxy;
+
+import com.sun.org.apache.xerces.internal.impl.Constants;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Immutable parser configuration. Each instance lazily creates and caches
+ * the XML factories it needs, so reusing a settings object avoids the
+ * service lookup in <code>XMLInputFactory.newInstance()</code> and friends
+ * on every parse. Instances are safe to share between threads.
+ */
+@SuppressWarnings("restriction")
+public final class ParserSettings {
+
+    private static final String LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+    private static final String IGNORE_EXTERNAL_DTD = "http://java.sun.com/xml/stream/properties/ignore-external-dtd";
+    private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
+    public static final ParserSettings DEFAULT = new ParserSettings(false, true, false, true, false, false, null);
+
+    private final boolean coalescing;
+    private final boolean reportCdata;
+    private final boolean loadExternalDtd;
+    private final boolean lineNumbers;
+    private final boolean ignoreWhitespace;
+    private final boolean nativeParser;
+    private final SymbolTable symbolTable;
+
+    private volatile XMLInputFactory inputFactory;
+    private volatile SAXParserFactory saxParserFactory;
+    private volatile DocumentBuilderFactory documentBuilderFactory;
+
+    private ParserSettings(boolean coalescing, boolean reportCdata, boolean loadExternalDtd, boolean lineNumbers, boolean ignoreWhitespace, boolean nativeParser, SymbolTable symbolTable) {
+        this.coalescing = coalescing;
+        this.reportCdata = reportCdata;
+        this.loadExternalDtd = loadExternalDtd;
+        this.lineNumbers = lineNumbers;
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.nativeParser = nativeParser;
+        this.symbolTable = symbolTable;
+    }
+
+    /** Merge adjacent text and CDATA sections into a single text node */
+    public ParserSettings withCoalescing(boolean coalescing) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /** Keep CDATA sections as CDATA nodes instead of plain text */
+    public ParserSettings withReportCdata(boolean reportCdata) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /** Fetch external DTDs referenced from DOCTYPE declarations */
+    public ParserSettings withLoadExternalDtd(boolean loadExternalDtd) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /** Record the source line number on each parsed element */
+    public ParserSettings withLineNumbers(boolean lineNumbers) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /** Drop text nodes that only contain whitespace */
+    public ParserSettings withIgnoreWhitespace(boolean ignoreWhitespace) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /**
+     * Read byte input with the built-in UTF-8 tokenizer instead of JDK StAX.
+     * The built-in tokenizer never loads external DTDs and only knows the
+     * predefined entities.
+     */
+    public ParserSettings withNativeParser(boolean nativeParser) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    /**
+     * Share one {@link SymbolTable} between all parses with these settings,
+     * so equal names from different documents are the same instance.
+     * Without it, each parse gets its own table.
+     */
+    public ParserSettings withSymbolTable(SymbolTable symbolTable) {
+        return new ParserSettings(coalescing, reportCdata, loadExternalDtd, lineNumbers, ignoreWhitespace, nativeParser, symbolTable);
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    public boolean isReportCdata() {
+        return reportCdata;
+    }
+
+    public boolean isLoadExternalDtd() {
+        return loadExternalDtd;
+    }
+
+    public boolean isLineNumbers() {
+        return lineNumbers;
+    }
+
+    public boolean isIgnoreWhitespace() {
+        return ignoreWhitespace;
+    }
+
+    public boolean isNativeParser() {
+        return nativeParser;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /** The shared symbol table, or a new one for a single parse */
+    SymbolTable newSymbolTable() {
+        return symbolTable != null ? symbolTable : new SymbolTable(false);
+    }
+
+    boolean isIgnorable(CharSequence text) {
+        if (!ignoreWhitespace) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    XMLInputFactory getInputFactory() {
+        XMLInputFactory result = inputFactory;
+        if (result == null) {
+            synchronized (this) {
+                result = inputFactory;
+                if (result == null) {
+                    result = XMLInputFactory.newInstance();
+                    result.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+                    result.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, reportCdata);
+                    if (result.isPropertySupported(IGNORE_EXTERNAL_DTD)) {
+                        result.setProperty(IGNORE_EXTERNAL_DTD, !loadExternalDtd);
+                    }
+                    inputFactory = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    SAXParser newSaxParser() throws SAXException {
+        SAXParserFactory factory = saxParserFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = saxParserFactory;
+                if (factory == null) {
+                    factory = SAXParserFactory.newInstance();
+                    try {
+                        factory.setFeature(LOAD_EXTERNAL_DTD, loadExternalDtd);
+                        factory.setFeature(NAMESPACE_PREFIXES, true);
+                    } catch (ParserConfigurationException e) {
+                        throw new CanNeverHappenException("SAXParserFactory is always supported", e);
+                    }
+                    factory.setNamespaceAware(true);
+                    saxParserFactory = factory;
+                }
+            }
+        }
+        try {
+            // SAXParserFactory doesn't promise to be thread safe
+            synchronized (factory) {
+                return factory.newSAXParser();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new CanNeverHappenException("SAXParserFactory is always supported", e);
+        }
+    }
+
+    DocumentBuilder newDocumentBuilder() {
+        DocumentBuilderFactory factory = documentBuilderFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = documentBuilderFactory;
+                if (factory == null) {
+                    factory = DocumentBuilderFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    factory.setCoalescing(coalescing);
+                    factory.setIgnoringElementContentWhitespace(ignoreWhitespace);
+                    try {
+                        factory.setFeature(LOAD_EXTERNAL_DTD, loadExternalDtd);
+                    } catch (ParserConfigurationException e) {
+                        // Not all implementations know about external DTDs
+                    }
+                    documentBuilderFactory = factory;
+                }
+            }
+        }
+        try {
+            // DocumentBuilderFactory doesn't promise to be thread safe
+            synchronized (factory) {
+                return factory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new CanNeverHappenException("DocumentBuilderFactory is always supported", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{coalescing=" + coalescing + ",reportCdata=" + reportCdata
+                + ",loadExternalDtd=" + loadExternalDtd + ",lineNumbers=" + lineNumbers
+                + ",ignoreWhitespace=" + ignoreWhitespace + ",nativeParser=" + nativeParser + "}";
+    }
+
+}
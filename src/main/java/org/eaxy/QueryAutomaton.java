@@ -0,0 +1,164 @@
+package org.eaxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Evaluates several queries at once while walking down a tree. Each step
+ * of each query is a state. The states of an element are the steps that
+ * are waiting for a matching child (or, for "..." steps, descendant) of
+ * the element. An element that matches the last step of a query is a
+ * result for that query.
+ *
+ * <p>The states of an element only depend on the states of its parent,
+ * so the automaton can run over a stream of start and end tags, with work
+ * per tag that depends on the number of steps, not the depth. Positions
+ * are supported when no "..." step comes before them. They count the
+ * matches in document order, using the counters from
+ * {@link #newCounts()}. Other queries can't be added.</p>
+ */
+final class QueryAutomaton {
+
+    private static final int[] NO_STATES = new int[0];
+
+    static final class Builder {
+        private final List<ElementFilter> filters = new ArrayList<>();
+        private final List<Boolean> descendant = new ArrayList<>();
+        private final List<Integer> accepts = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private final List<Integer> initialStates = new ArrayList<>();
+        private int queryStart;
+        private boolean afterDescendant;
+
+        void step(ElementFilter filter, boolean descendant) {
+            this.filters.add(filter);
+            this.descendant.add(descendant);
+            this.accepts.add(-1);
+            this.positions.add(-1);
+            afterDescendant |= descendant;
+        }
+
+        /**
+         * Only lets the <code>position</code>th match of the previous step
+         * through. Returns false if there is no previous step or a "..."
+         * step comes before it
+         */
+        boolean position(int position) {
+            int last = filters.size() - 1;
+            if (last < queryStart || afterDescendant || positions.get(last) >= 0) return false;
+            positions.set(last, position);
+            return true;
+        }
+
+        /** Adds the query's steps as states. Returns false if the query can't be added */
+        boolean add(int queryIndex, ElementQuery query) {
+            int start = filters.size();
+            queryStart = start;
+            afterDescendant = false;
+            if (!ElementFilters.addSteps(query, this) || filters.size() == start) {
+                while (filters.size() > start) {
+                    int last = filters.size() - 1;
+                    filters.remove(last);
+                    descendant.remove(last);
+                    accepts.remove(last);
+                    positions.remove(last);
+                }
+                return false;
+            }
+            accepts.set(filters.size() - 1, queryIndex);
+            initialStates.add(start);
+            return true;
+        }
+
+        QueryAutomaton build() {
+            return new QueryAutomaton(this);
+        }
+    }
+
+    private final ElementFilter[] filters;
+    private final boolean[] descendant;
+    /** The index of the query if the state is the last step of the query, otherwise -1 */
+    private final int[] accepts;
+    /** The position a match of the state must have, or -1 */
+    private final int[] positions;
+    private final int[] initialStates;
+
+    private QueryAutomaton(Builder builder) {
+        int size = builder.filters.size();
+        filters = builder.filters.toArray(new ElementFilter[size]);
+        descendant = new boolean[size];
+        accepts = new int[size];
+        positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            descendant[i] = builder.descendant.get(i);
+            accepts[i] = builder.accepts.get(i);
+            positions[i] = builder.positions.get(i);
+        }
+        initialStates = new int[builder.initialStates.size()];
+        for (int i = 0; i < initialStates.length; i++) {
+            initialStates[i] = builder.initialStates.get(i);
+        }
+    }
+
+    /** The states of the element the queries start from */
+    int[] initialStates() {
+        return initialStates;
+    }
+
+    /** The counters for positions in one pass over a document */
+    int[] newCounts() {
+        return new int[filters.length];
+    }
+
+    /**
+     * Returns the states of <code>element</code>, given the states of its
+     * parent, and sets the queries that have <code>element</code> as a
+     * result in <code>accepted</code>. The elements must be visited in
+     * document order with the same <code>counts</code>.
+     */
+    int[] next(int[] parentStates, Element element, BitSet accepted, int[] counts) {
+        if (parentStates.length == 0) return NO_STATES;
+        int[] result = new int[2 * parentStates.length];
+        int count = 0;
+        for (int state : parentStates) {
+            if (descendant[state]) {
+                count = add(result, count, state);
+            }
+            if (filters[state].matches(element)) {
+                if (positions[state] >= 0 && counts[state]++ != positions[state]) {
+                    continue;
+                }
+                if (accepts[state] >= 0) {
+                    accepted.set(accepts[state]);
+                } else {
+                    count = add(result, count, state + 1);
+                }
+            }
+        }
+        if (count == 0) return NO_STATES;
+        if (count == parentStates.length && equals(result, parentStates)) {
+            // Typical while "..." looks for a match, so the states can be shared
+            return parentStates;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static boolean equals(int[] states, int[] other) {
+        for (int i = 0; i < other.length; i++) {
+            if (states[i] != other[i]) return false;
+        }
+        return true;
+    }
+
+    /** Puts the state after the first <code>count</code> states unless it is already there */
+    private static int add(int[] states, int count, int state) {
+        for (int i = 0; i < count; i++) {
+            if (states[i] == state) return count;
+        }
+        states[count] = state;
+        return count + 1;
+    }
+
+}
@@ -0,0 +1,221 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Runs several queries (see {@link Xml#compile(Object...)}) in one pass
+ * over a tree or a file, instead of one pass per query.
+ *
+ * <pre>
+ * QuerySet queries = new QuerySet(Xml.compile("...", "order"), Xml.compile("header", "sender"));
+ * List&lt;ElementSet&gt; results = queries.search(doc);
+ * </pre>
+ *
+ * <p>Queries made of tag names, attribute and class filters, ids, "..."
+ * and positions are evaluated together. Each result set contains the
+ * matching elements in document order, each element once, with the full
+ * {@link ElementPath} from the root. Other queries, like positions after
+ * "...", are searched separately by {@link #search(Element)} and are not
+ * supported by {@link #iterate(Reader)}.</p>
+ */
+public class QuerySet {
+
+    /** An element that matches one of the queries while iterating over a file */
+    public static class Match {
+        private final int index;
+        private final Element element;
+
+        Match(int index, Element element) {
+            this.index = index;
+            this.element = element;
+        }
+
+        /** The position of the query in the query set */
+        public int getIndex() {
+            return index;
+        }
+
+        @Nonnull
+        public Element getElement() {
+            return element;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "{" + index + "=" + element + "}";
+        }
+    }
+
+    private final List<ElementQuery> queries;
+    private final QueryAutomaton automaton;
+    /** The queries that are not in the automaton */
+    private final BitSet unsupported = new BitSet();
+
+    public QuerySet(@Nonnull ElementQuery... queries) {
+        this(Arrays.asList(queries));
+    }
+
+    public QuerySet(@Nonnull List<ElementQuery> queries) {
+        this.queries = new ArrayList<>(queries);
+        QueryAutomaton.Builder builder = new QueryAutomaton.Builder();
+        for (int i = 0; i < this.queries.size(); i++) {
+            if (!builder.add(i, this.queries.get(i))) {
+                unsupported.set(i);
+            }
+        }
+        this.automaton = builder.build();
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    /** Returns the results of each query, in the same order as the queries */
+    @Nonnull
+    public List<ElementSet> search(@Nonnull Document document) {
+        return search(document.getRootElement());
+    }
+
+    /** Returns the results of each query, in the same order as the queries */
+    @Nonnull
+    public List<ElementSet> search(@Nonnull Element root) {
+        List<List<ElementPath>> paths = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            paths.add(new ArrayList<>());
+        }
+        ElementPath rootPath = new ElementPath(null, root);
+        if (automaton.initialStates().length > 0) {
+            walk(rootPath, automaton.initialStates(), paths);
+        }
+
+        List<ElementSet> result = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            if (unsupported.get(i)) {
+                result.add(queries.get(i).search(new ElementSet(root)));
+            } else {
+                result.add(new ElementSet(root).nestedSet(queries.get(i), paths.get(i)));
+            }
+        }
+        return result;
+    }
+
+    /** Visits the descendants of the root, skipping subtrees where no query can match */
+    private void walk(ElementPath rootPath, int[] rootStates, List<List<ElementPath>> paths) {
+        BitSet accepted = new BitSet();
+        int[] counts = automaton.newCounts();
+        Deque<ElementPath> parents = new ArrayDeque<>();
+        Deque<int[]> states = new ArrayDeque<>();
+        Deque<int[]> positions = new ArrayDeque<>();
+        parents.push(rootPath);
+        states.push(rootStates);
+        positions.push(new int[] { 0 });
+        while (!parents.isEmpty()) {
+            Element parent = parents.peek().leafElement();
+            int[] position = positions.peek();
+            if (position[0] >= parent.childCount()) {
+                parents.pop();
+                states.pop();
+                positions.pop();
+                continue;
+            }
+            Node child = parent.child(position[0]++);
+            if (!(child instanceof Element)) continue;
+            Element element = (Element) child;
+
+            int[] childStates = automaton.next(states.peek(), element, accepted, counts);
+            ElementPath path = null;
+            if (!accepted.isEmpty()) {
+                path = new ElementPath(parents.peek(), element);
+                for (int i = accepted.nextSetBit(0); i >= 0; i = accepted.nextSetBit(i + 1)) {
+                    paths.get(i).add(path);
+                }
+                accepted.clear();
+            }
+            if (childStates.length > 0 && element.hasChildElements()) {
+                parents.push(path != null ? path : new ElementPath(parents.peek(), element));
+                states.push(childStates);
+                positions.push(new int[] { 0 });
+            }
+        }
+    }
+
+    /**
+     * Parses the input once and returns the elements that match any of
+     * the queries, in document order. An element that matches several
+     * queries is returned once for each. Elements are complete when they
+     * are returned, and matches inside an element come after it.
+     *
+     * @throws UnsupportedOperationException if one of the queries can't
+     *      be evaluated while streaming
+     */
+    @Nonnull
+    public Iterable<Match> iterate(@Nonnull Reader reader) {
+        return iterate(reader, ParserSettings.DEFAULT);
+    }
+
+    @Nonnull
+    public Iterable<Match> iterate(@Nonnull Reader reader, @Nonnull ParserSettings settings) {
+        checkStreamable();
+        return () -> new Matches(new XmlIterator(XmlIterator.open(reader, settings), StreamingMatcher.of(automaton), settings, null));
+    }
+
+    @Nonnull
+    public Iterable<Match> iterate(@Nonnull URL url, @Nonnull ParserSettings settings) {
+        checkStreamable();
+        return () -> new Matches(new XmlIterator(XmlIterator.open(url, settings), StreamingMatcher.of(automaton), settings, null));
+    }
+
+    @Nonnull
+    public Iterable<Match> iterate(@Nonnull Path path) {
+        return iterate(path, ParserSettings.DEFAULT);
+    }
+
+    @Nonnull
+    public Iterable<Match> iterate(@Nonnull Path path, @Nonnull ParserSettings settings) {
+        checkStreamable();
+        return () -> new Matches(new XmlIterator(XmlIterator.open(path), StreamingMatcher.of(automaton), settings, null));
+    }
+
+    private void checkStreamable() {
+        if (!unsupported.isEmpty()) {
+            throw new UnsupportedOperationException("Can't iterate over " + queries.get(unsupported.nextSetBit(0)));
+        }
+    }
+
+    /** Passes on the matches from an {@link XmlIterator} that runs all the queries */
+    private static class Matches implements Iterator<Match>, Closeable {
+        private final XmlIterator iterator;
+
+        Matches(XmlIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Match next() {
+            return iterator.nextMatch();
+        }
+
+        @Override
+        public void close() {
+            iterator.close();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.eaxy;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * What {@link XmlIterator} keeps of each matching element, and which
+ * elements it returns. The projection queries select the descendants to
+ * keep. The condition queries find the first descendant each predicate
+ * decides on.
+ */
+final class RecordFilter {
+
+    /** The descendants to keep, or null to keep everything */
+    final QueryAutomaton projection;
+    /** The descendants the predicates decide on, or null if there are no conditions */
+    final QueryAutomaton conditions;
+    private final List<ElementQuery> conditionQueries;
+    private final List<Predicate<? super Element>> predicates;
+
+    RecordFilter(List<ElementQuery> projection, List<ElementQuery> conditionQueries, List<Predicate<? super Element>> predicates) {
+        this.projection = projection.isEmpty() ? null : compile(projection, "project");
+        this.conditions = conditionQueries.isEmpty() ? null : compile(conditionQueries, "filter on");
+        this.conditionQueries = new ArrayList<>(conditionQueries);
+        this.predicates = new ArrayList<>(predicates);
+    }
+
+    private static QueryAutomaton compile(List<ElementQuery> queries, String operation) {
+        QueryAutomaton.Builder builder = new QueryAutomaton.Builder();
+        for (int i = 0; i < queries.size(); i++) {
+            if (!builder.add(i, queries.get(i))) {
+                throw new UnsupportedOperationException("Can't " + operation + " " + queries.get(i));
+            }
+        }
+        return builder.build();
+    }
+
+    int conditionCount() {
+        return predicates.size();
+    }
+
+    /** Tests the element the condition found first */
+    boolean test(int condition, Element element) {
+        return predicates.get(condition).test(element);
+    }
+
+    /** Checks the conditions against a complete element in memory */
+    boolean accepts(Element element) {
+        for (int i = 0; i < predicates.size(); i++) {
+            ElementSet found = conditionQueries.get(i).search(new ElementSet(element));
+            if (found.isEmpty() || !test(i, found.first())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of a complete element with only the descendants the
+     * projection keeps, and the elements between, like
+     * {@link XmlIterator} keeps while parsing. Returns the element itself
+     * if there is no projection.
+     */
+    Element project(Element element) {
+        if (projection == null) {
+            return element;
+        }
+        Element result = element.copyElement();
+        projectChildren(element, projection.initialStates(), result, new BitSet(), projection.newCounts());
+        return result;
+    }
+
+    private void projectChildren(Element element, int[] states, Element result, BitSet accepted, int[] counts) {
+        for (int i = 0; i < element.childCount(); i++) {
+            if (!(element.child(i) instanceof Element)) continue;
+            Element child = (Element) element.child(i);
+            int[] childStates = projection.next(states, child, accepted, counts);
+            if (!accepted.isEmpty()) {
+                accepted.clear();
+                result.add(child.copy());
+            } else if (childStates.length > 0) {
+                Element copy = child.copyElement();
+                projectChildren(child, childStates, copy, accepted, counts);
+                if (copy.childCount() > 0) {
+                    result.add(copy);
+                }
+            }
+        }
+    }
+
+}
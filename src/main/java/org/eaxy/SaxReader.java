@@ -4,12 +4,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Stack;
 
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.ext.DefaultHandler2;
@@ -18,8 +17,21 @@ public class SaxReader {
 
     static final class ElementBuilderHandler extends DefaultHandler2 {
         private final Stack<Element> elementStack = new Stack<Element>();
+        private final ParserSettings settings;
+        private final SymbolTable symbols;
         private StringBuilder currentText;
         private Document document;
+        private Locator locator;
+
+        ElementBuilderHandler(ParserSettings settings) {
+            this.settings = settings;
+            this.symbols = settings.newSymbolTable();
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
 
         // TODO: Keep entities like &aring; and &oslash;
 
@@ -31,15 +43,11 @@ public class SaxReader {
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) {
-            Namespace namespace;
-            if (uri != null && !uri.isEmpty()) {
-                String prefix = qName.contains(":") ? qName.split(":")[0] : null;
-                namespace = new Namespace(uri, prefix);
-            } else {
-                namespace = Namespace.NO_NAMESPACE;
-            }
-
-            Element newElement = namespace.el(localName);
+            String prefix = uri != null && !uri.isEmpty() && qName.contains(":") ? qName.split(":")[0] : null;
+            QualifiedName name = symbols.name(uri, localName, prefix);
+            Element newElement = settings.isLineNumbers() && locator != null
+                    ? new Element(name, locator.getLineNumber())
+                    : new Element(name);
             addAttrs(newElement, attributes);
             pushTextToTopElement();
             if (!elementStack.isEmpty()) elementStack.peek().add(newElement);
@@ -49,9 +57,9 @@ public class SaxReader {
         private void addAttrs(Element element, Attributes attributes) {
             for (int i = 0; i < attributes.getLength(); i++) {
                 if (attributes.getQName(i).startsWith("xmlns:")) {
-                    element.namespace(new Namespace(attributes.getValue(i), attributes.getQName(i).substring("xmlns:".length())));
+                    element.namespace(symbols.namespace(attributes.getValue(i), attributes.getQName(i).substring("xmlns:".length())));
                 } else {
-                    element.attr(new QualifiedName(attributes.getURI(i), attributes.getQName(i)),
+                    element.attr(symbols.name(attributes.getURI(i), attributes.getQName(i)),
                             attributes.getValue(i));
                 }
             }
@@ -72,12 +80,14 @@ public class SaxReader {
 
         @Override
         public void startCDATA() {
+            if (!isCdataReported()) return;
             pushTextToTopElement();
             currentText = new StringBuilder();
         }
 
         @Override
         public void endCDATA() {
+            if (!isCdataReported()) return;
             if (!elementStack.isEmpty()) {
                 if (currentText.length() > 0) {
                     elementStack.peek().add(Xml.cdata(currentText));
@@ -86,9 +96,13 @@ public class SaxReader {
             this.currentText = new StringBuilder();
         }
 
+        private boolean isCdataReported() {
+            return settings.isReportCdata() && !settings.isCoalescing();
+        }
+
         private void pushTextToTopElement() {
             if (!elementStack.isEmpty()) {
-                if (currentText.length() > 0) {
+                if (currentText.length() > 0 && !settings.isIgnorable(currentText)) {
                     elementStack.peek().add(Xml.text(currentText));
                 }
             }
@@ -111,14 +125,10 @@ public class SaxReader {
         }
     }
 
-    static Document read(InputSource inputSource) throws IOException {
+    static Document read(InputSource inputSource, ParserSettings settings) throws IOException {
         try {
-            ElementBuilderHandler handler = new ElementBuilderHandler();
-            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-            parserFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-            parserFactory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
-            parserFactory.setNamespaceAware(true);
-            SAXParser parser = parserFactory.newSAXParser();
+            ElementBuilderHandler handler = new ElementBuilderHandler(settings);
+            SAXParser parser = settings.newSaxParser();
             parser.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
             parser.parse(inputSource, handler);
             return handler.getDocument();
@@ -126,13 +136,15 @@ public class SaxReader {
             throw new MalformedXMLException(e.getMessage(), e.getLineNumber());
         } catch (SAXException e) {
             throw new UnexpectedException(e);
-        } catch (ParserConfigurationException e) {
-            throw new CanNeverHappenException("SAXParserFactory is always supported", e);
         }
     }
 
     public static Document read(InputStream input) throws IOException {
-        return read(new InputSource(input));
+        return read(input, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(InputStream input, ParserSettings settings) throws IOException {
+        return read(new InputSource(input), settings);
     }
 
 }
@@ -4,31 +4,31 @@ import static org.eaxy.Xml.cdata;
 import static org.eaxy.Xml.comment;
 import static org.eaxy.Xml.text;
 
-import com.sun.org.apache.xerces.internal.impl.Constants;
-
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
 import java.util.Stack;
 
 import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
 
-@SuppressWarnings("restriction")
 public class StaxReader implements XMLStreamConstants {
 
     private final Stack<Element> elementStack = new Stack<Element>();
     private final XMLStreamReader streamReader;
     private final Document document;
+    private final ParserSettings settings;
+    private final SymbolTable symbols;
     private Element rootElement = null;
 
-    private StaxReader(URL baseUrl, XMLStreamReader streamReader) {
+    private StaxReader(URL baseUrl, XMLStreamReader streamReader, ParserSettings settings) {
         this.document = new Document(baseUrl);
         this.streamReader = streamReader;
+        this.settings = settings;
+        this.symbols = settings.newSymbolTable();
         if (streamReader.getVersion() != null) {
             document.setVersion(streamReader.getVersion());
         }
@@ -37,24 +37,25 @@ public class StaxReader implements XMLStreamConstants {
         }
     }
 
-    private static XMLInputFactory getInputFactory() {
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
-        inputFactory.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, Boolean.TRUE);
-        return inputFactory;
+    public static Document read(Reader reader) {
+        return read(reader, ParserSettings.DEFAULT);
     }
 
-    public static Document read(Reader reader) {
+    public static Document read(Reader reader, ParserSettings settings) {
         try {
-            return new StaxReader(null, getInputFactory().createXMLStreamReader(reader)).doParse();
+            return new StaxReader(null, settings.getInputFactory().createXMLStreamReader(reader), settings).doParse();
         } catch (XMLStreamException e) {
             throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
         }
     }
 
     public static Document read(InputStream inputStream, URL resourceBase) {
+        return read(inputStream, resourceBase, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(InputStream inputStream, URL resourceBase, ParserSettings settings) {
         try {
-            return new StaxReader(resourceBase, getInputFactory().createXMLStreamReader(inputStream)).doParse();
+            return new StaxReader(resourceBase, settings.getInputFactory().createXMLStreamReader(inputStream), settings).doParse();
         } catch (XMLStreamException e) {
             throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
         }
@@ -82,7 +83,10 @@ public class StaxReader implements XMLStreamConstants {
                 break;
             case SPACE:
             case CHARACTERS:
-                current().add(text(streamReader.getText()));
+                String text = streamReader.getText();
+                if (!settings.isIgnorable(text)) {
+                    current().add(text(text));
+                }
                 break;
             case END_ELEMENT:
                 elementStack.pop();
@@ -113,21 +117,27 @@ public class StaxReader implements XMLStreamConstants {
     }
 
     private Element readElement() {
+        return readElement(streamReader, symbols, settings);
+    }
+
+    static Element readElement(XMLStreamReader streamReader, SymbolTable symbols, ParserSettings settings) {
         QName name = streamReader.getName();
-        Element element = new Element(toName(name), streamReader.getLocation().getLineNumber());
+        Element element = settings.isLineNumbers()
+                ? new Element(toName(name, symbols), streamReader.getLocation().getLineNumber())
+                : new Element(toName(name, symbols));
 
         for (int i = 0; i < streamReader.getNamespaceCount(); i++) {
-            element.namespace(new Namespace(streamReader.getNamespaceURI(i), streamReader.getNamespacePrefix(i)));
+            element.namespace(symbols.namespace(streamReader.getNamespaceURI(i), streamReader.getNamespacePrefix(i)));
         }
 
         for (int i = 0; i < streamReader.getAttributeCount(); i++) {
-            element.attr(toName(streamReader.getAttributeName(i)), streamReader.getAttributeValue(i));
+            element.attr(toName(streamReader.getAttributeName(i), symbols), streamReader.getAttributeValue(i));
         }
         return element;
     }
 
-    static QualifiedName toName(QName name) {
-        return new QualifiedName(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
+    private static QualifiedName toName(QName name, SymbolTable symbols) {
+        return symbols.name(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
     }
 
 }
@@ -0,0 +1,153 @@
+package org.eaxy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Follows the start and end tags of a document to find the elements that
+ * match one or more queries. Queries the {@link QueryAutomaton} supports
+ * keep one set of states per open element, so checking a start tag
+ * doesn't look at its ancestors. Other queries are checked with
+ * {@link ElementQuery#matches(List, int)} on the open elements, and only
+ * for the query as a whole.
+ */
+final class StreamingMatcher {
+
+    private static final int[] NO_STATES = new int[0];
+
+    private final QueryAutomaton automaton;
+    private final int[] counts;
+    private final BitSet accepted = new BitSet();
+
+    private int[][] states = new int[16][];
+    private int depth = -1;
+
+    private final ElementQuery query;
+    private final List<Element> elementStack;
+
+    /** The states of the last match, and the queries it matched */
+    private int[] matchStates;
+    private final BitSet matchAccepted = new BitSet();
+
+    private StreamingMatcher(QueryAutomaton automaton, ElementQuery query) {
+        this.automaton = automaton;
+        this.counts = automaton != null ? automaton.newCounts() : null;
+        this.query = query;
+        this.elementStack = automaton != null ? null : new ArrayList<Element>();
+    }
+
+    /** Matches a single query */
+    static StreamingMatcher of(ElementQuery query) {
+        QueryAutomaton.Builder builder = new QueryAutomaton.Builder();
+        return new StreamingMatcher(builder.add(0, query) ? builder.build() : null, query);
+    }
+
+    /** Matches the queries of the automaton */
+    static StreamingMatcher of(QueryAutomaton automaton) {
+        return new StreamingMatcher(automaton, null);
+    }
+
+    /**
+     * Called for each start tag. Returns true if the element matches. In
+     * that case the caller reads the rest of the element and doesn't call
+     * {@link #end()} for it.
+     */
+    boolean start(Element element) {
+        if (automaton == null) {
+            elementStack.add(element);
+            if (query.matches(elementStack, 1)) {
+                elementStack.remove(elementStack.size() - 1);
+                matchAccepted.set(0);
+                return true;
+            }
+            return false;
+        }
+        if (depth < 0) {
+            // Queries start from the root element, which itself is never a match
+            push(automaton.initialStates());
+            return false;
+        }
+        int[] parentStates = states[depth];
+        if (parentStates.length == 0) {
+            push(NO_STATES);
+            return false;
+        }
+        int[] elementStates = automaton.next(parentStates, element, accepted, counts);
+        if (!accepted.isEmpty()) {
+            matchStates = elementStates;
+            matchAccepted.clear();
+            matchAccepted.or(accepted);
+            accepted.clear();
+            return true;
+        }
+        push(elementStates);
+        return false;
+    }
+
+    /** Called for each end tag, except for the end tag of a match */
+    void end() {
+        if (automaton == null) {
+            elementStack.remove(elementStack.size() - 1);
+        } else {
+            states[depth--] = null;
+        }
+    }
+
+    /** Returns true if elements inside the last match can also match */
+    boolean canMatchInside() {
+        return automaton != null && matchStates.length > 0;
+    }
+
+    /** Returns true if nothing inside the current element can match */
+    boolean isSkipping() {
+        return automaton != null && depth >= 0 && states[depth].length == 0;
+    }
+
+    /**
+     * Gives the query indexes of the last match, and then each match inside
+     * it in document order, to <code>action</code>. Call this after the
+     * element returned by {@link #start(Element)} is complete.
+     */
+    void forEachMatch(Element match, ObjIntConsumer<Element> action) {
+        for (int i = matchAccepted.nextSetBit(0); i >= 0; i = matchAccepted.nextSetBit(i + 1)) {
+            action.accept(match, i);
+        }
+        if (automaton == null) return;
+
+        Deque<Element> elements = new ArrayDeque<>();
+        Deque<int[]> elementStates = new ArrayDeque<>();
+        addChildren(match, matchStates, elements, elementStates);
+        while (!elements.isEmpty()) {
+            Element element = elements.pop();
+            int[] childStates = automaton.next(elementStates.pop(), element, accepted, counts);
+            for (int i = accepted.nextSetBit(0); i >= 0; i = accepted.nextSetBit(i + 1)) {
+                action.accept(element, i);
+            }
+            accepted.clear();
+            addChildren(element, childStates, elements, elementStates);
+        }
+    }
+
+    static void addChildren(Element element, int[] childStates, Deque<Element> elements, Deque<int[]> elementStates) {
+        if (childStates.length == 0) return;
+        for (int i = element.childCount() - 1; i >= 0; i--) {
+            if (element.child(i) instanceof Element) {
+                elements.push((Element) element.child(i));
+                elementStates.push(childStates);
+            }
+        }
+    }
+
+    private void push(int[] elementStates) {
+        if (++depth == states.length) {
+            states = Arrays.copyOf(states, 2 * depth);
+        }
+        states[depth] = elementStates;
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.eaxy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical {@link QualifiedName}, {@link Namespace} and name strings, so a
+ * parser can reuse one instance for each distinct name instead of allocating
+ * new ones for every element and attribute. Names from the same table can be
+ * compared by identity.
+ *
+ * <p>The parsers create a table for each parse unless one is given with
+ * {@link ParserSettings#withSymbolTable(SymbolTable)}. Tables created with
+ * the public constructor are thread safe and can be shared between parses.
+ * A table never forgets a name, so only share it between documents with a
+ * limited vocabulary.</p>
+ */
+public final class SymbolTable {
+
+    private static final class NamespaceSymbols {
+        final Namespace namespace;
+        final Map<String, QualifiedName> names;
+
+        NamespaceSymbols(Namespace namespace, Map<String, QualifiedName> names) {
+            this.namespace = namespace;
+            this.names = names;
+        }
+    }
+
+    private final boolean concurrent;
+    /** uri -> prefix -> namespace and names. No namespace and no prefix are stored as "" */
+    private final Map<String, Map<String, NamespaceSymbols>> namespaces;
+    private final Map<String, String> strings;
+
+    public SymbolTable() {
+        this(true);
+    }
+
+    SymbolTable(boolean concurrent) {
+        this.concurrent = concurrent;
+        this.namespaces = newMap();
+        this.strings = newMap();
+    }
+
+    public QualifiedName name(String uri, String localName, String prefix) {
+        NamespaceSymbols symbols = symbols(uri, prefix);
+        QualifiedName name = symbols.names.get(localName);
+        if (name == null) {
+            name = putIfAbsent(symbols.names, localName, new QualifiedName(symbols.namespace, symbol(localName)));
+        }
+        return name;
+    }
+
+    /** Looks up a name given as <code>prefix:localName</code> */
+    public QualifiedName name(String uri, String qualifiedName) {
+        int colonPos = qualifiedName.indexOf(':');
+        if (colonPos < 0) {
+            return name(uri, qualifiedName, null);
+        }
+        return name(uri, qualifiedName.substring(colonPos + 1), qualifiedName.substring(0, colonPos));
+    }
+
+    public Namespace namespace(String uri, String prefix) {
+        return symbols(uri, prefix).namespace;
+    }
+
+    public String symbol(String value) {
+        String symbol = strings.get(value);
+        if (symbol == null) {
+            symbol = putIfAbsent(strings, value, value);
+        }
+        return symbol;
+    }
+
+    private NamespaceSymbols symbols(String uri, String prefix) {
+        String uriKey = uri == null ? "" : uri;
+        String prefixKey = prefix == null ? "" : prefix;
+        Map<String, NamespaceSymbols> prefixes = namespaces.get(uriKey);
+        if (prefixes == null) {
+            prefixes = putIfAbsent(namespaces, uriKey, this.<String, NamespaceSymbols>newMap());
+        }
+        NamespaceSymbols symbols = prefixes.get(prefixKey);
+        if (symbols == null) {
+            Namespace namespace;
+            if (uriKey.isEmpty()) {
+                if (!prefixKey.isEmpty()) {
+                    throw new IllegalArgumentException(prefix);
+                }
+                namespace = Namespace.NO_NAMESPACE;
+            } else {
+                namespace = new Namespace(symbol(uriKey), prefix == null ? null : symbol(prefix));
+            }
+            symbols = putIfAbsent(prefixes, prefixKey, new NamespaceSymbols(namespace, this.<String, QualifiedName>newMap()));
+        }
+        return symbols;
+    }
+
+    private <K, V> Map<K, V> newMap() {
+        return concurrent ? new ConcurrentHashMap<K, V>() : new HashMap<K, V>();
+    }
+
+    private static <K, V> V putIfAbsent(Map<K, V> map, K key, V value) {
+        V existing = map.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+
+}
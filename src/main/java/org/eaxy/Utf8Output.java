@@ -0,0 +1,176 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes the output of a {@link WriterXmlVisitor} as UTF-8 into a byte
+ * array, which is passed to the destination each time it is full. ASCII
+ * characters are copied one byte each, and escaping is checked in the same
+ * pass, so there are no intermediate strings, char arrays or writers.
+ */
+abstract class Utf8Output extends XmlOutput {
+
+    /** Room for the longest escape, <code>&amp;quot;</code> */
+    private static final int MAX_BYTES_PER_CHAR = 6;
+
+    private final byte[] bytes;
+    private int position;
+    /** A high surrogate given to {@link #write(char)}, waiting for the low surrogate */
+    private char highSurrogate;
+
+    Utf8Output(int bufferSize) {
+        this.bytes = new byte[Math.max(bufferSize, 4 * MAX_BYTES_PER_CHAR)];
+    }
+
+    static Utf8Output to(OutputStream output) {
+        return new Utf8Output(8192) {
+            @Override
+            protected void drain(byte[] bytes, int length) throws IOException {
+                output.write(bytes, 0, length);
+            }
+        };
+    }
+
+    static Utf8Output to(WritableByteChannel channel) {
+        return new Utf8Output(8192) {
+            private ByteBuffer buffer;
+
+            @Override
+            protected void drain(byte[] bytes, int length) throws IOException {
+                if (buffer == null) {
+                    buffer = ByteBuffer.wrap(bytes);
+                }
+                ((Buffer) buffer).limit(length);
+                ((Buffer) buffer).position(0);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    /** Throws {@link java.nio.BufferOverflowException} if the output doesn't fit */
+    static Utf8Output to(ByteBuffer buffer) {
+        return new Utf8Output(Math.min(8192, buffer.remaining())) {
+            @Override
+            protected void drain(byte[] bytes, int length) {
+                buffer.put(bytes, 0, length);
+            }
+        };
+    }
+
+    /** Passes the first <code>length</code> bytes to the destination */
+    protected abstract void drain(byte[] bytes, int length) throws IOException;
+
+    @Override
+    void write(char c) throws IOException {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                ensureRoom();
+                position = encode(Character.toCodePoint(high, c), bytes, position);
+                return;
+            }
+            write('?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+            return;
+        }
+        ensureRoom();
+        position = Character.isSurrogate(c) ? put('?', bytes, position) : encode(c, bytes, position);
+    }
+
+    @Override
+    void write(String s, int offset, int length) throws IOException {
+        encode(s, offset, offset + length, false, false);
+    }
+
+    @Override
+    void writeEscaped(String s, boolean attribute) throws IOException {
+        encode(s, 0, s.length(), true, attribute);
+    }
+
+    @Override
+    void flush() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            write('?');
+        }
+        if (position > 0) {
+            drain(bytes, position);
+            position = 0;
+        }
+    }
+
+    private void ensureRoom() throws IOException {
+        if (position > bytes.length - MAX_BYTES_PER_CHAR) {
+            drain(bytes, position);
+            position = 0;
+        }
+    }
+
+    private void encode(String s, int start, int end, boolean escape, boolean attribute) throws IOException {
+        if (highSurrogate != 0 && start < end) {
+            write(s.charAt(start++));
+        }
+        byte[] bytes = this.bytes;
+        int position = this.position;
+        int limit = bytes.length - MAX_BYTES_PER_CHAR;
+        int i = start;
+        while (i < end) {
+            if (position > limit) {
+                drain(bytes, position);
+                position = 0;
+            }
+            char c = s.charAt(i++);
+            if (c < 0x80) {
+                String replacement = escape ? escape(c, attribute) : null;
+                if (replacement == null) {
+                    bytes[position++] = (byte) c;
+                } else {
+                    for (int j = 0; j < replacement.length(); j++) {
+                        bytes[position++] = (byte) replacement.charAt(j);
+                    }
+                }
+            } else if (!Character.isSurrogate(c)) {
+                position = encode(c, bytes, position);
+            } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(s.charAt(i))) {
+                position = encode(Character.toCodePoint(c, s.charAt(i++)), bytes, position);
+            } else {
+                position = put('?', bytes, position);
+            }
+        }
+        this.position = position;
+    }
+
+    private static int put(char c, byte[] bytes, int position) {
+        bytes[position] = (byte) c;
+        return position + 1;
+    }
+
+    private static int encode(int codePoint, byte[] bytes, int position) {
+        if (codePoint < 0x80) {
+            bytes[position++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            bytes[position++] = (byte) (0xc0 | codePoint >> 6);
+            bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+        } else if (codePoint < 0x10000) {
+            bytes[position++] = (byte) (0xe0 | codePoint >> 12);
+            bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+        } else {
+            bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+            bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+            bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+            bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+        }
+        return position;
+    }
+
+}
@@ -0,0 +1,279 @@
+package org.eaxy;
+
+import static org.eaxy.Xml.cdata;
+import static org.eaxy.Xml.comment;
+import static org.eaxy.Xml.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Builds Eaxy documents with the built-in {@link Utf8Tokenizer} instead of
+ * going through JDK StAX. Input in other encodings than UTF-8 is transcoded
+ * before parsing.
+ */
+public class Utf8Reader implements XMLStreamConstants {
+
+    private final Deque<Element> elementStack = new ArrayDeque<>();
+    private final ByteInput input;
+    private final Utf8Tokenizer tokenizer;
+    private final Document document;
+    private final ParserSettings settings;
+    private StringBuilder pendingText;
+
+    private Utf8Reader(URL baseUrl, ByteInput input, Utf8Tokenizer tokenizer, ParserSettings settings) {
+        this.document = new Document(baseUrl);
+        this.input = input;
+        this.tokenizer = tokenizer;
+        this.settings = settings;
+        tokenizer.setSymbolTable(settings.newSymbolTable());
+    }
+
+    public static Document read(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes), null, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(ByteBuffer input) {
+        return read(input, null, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(ByteBuffer input, URL baseUrl, ParserSettings settings) {
+        try {
+            return new Utf8Reader(baseUrl, null, tokenizer(input), settings).doParse();
+        } catch (IOException e) {
+            throw new CanNeverHappenException("Complete buffers never need more input", e);
+        }
+    }
+
+    public static Document read(InputStream inputStream, URL baseUrl, ParserSettings settings) throws IOException {
+        return read(ByteInput.of(inputStream), baseUrl, settings);
+    }
+
+    /**
+     * Memory maps the file and feeds the mapped bytes straight to the
+     * tokenizer, without decoding through a Reader. Files ending with .gz
+     * are decompressed instead.
+     */
+    public static Document read(Path path, ParserSettings settings) throws IOException {
+        try (ByteInput input = ByteInput.open(path)) {
+            return read(input, path.toUri().toURL(), settings);
+        }
+    }
+
+    /**
+     * Builds a single element cut out of a larger document, given the
+     * namespaces in scope and the line where it was cut.
+     */
+    static Element readElement(ByteBuffer input, String[][] namespaces, int lineNumber, ParserSettings settings) {
+        Utf8Tokenizer tokenizer = new Utf8Tokenizer(input);
+        tokenizer.declareNamespaces(namespaces);
+        tokenizer.setLineNumber(lineNumber);
+        try {
+            return new Utf8Reader(null, null, tokenizer, settings).doParse().getRootElement();
+        } catch (IOException e) {
+            throw new CanNeverHappenException("Complete buffers never need more input", e);
+        }
+    }
+
+    /** A reader for a fed tokenizer that builds the document as input arrives, see {@link #parseAvailable()} */
+    static Utf8Reader pushReader(Utf8Tokenizer tokenizer, ParserSettings settings) {
+        return new Utf8Reader(null, null, tokenizer, settings);
+    }
+
+    /**
+     * Consumes the tokens the tokenizer has. Returns the document when it
+     * is complete, or null when the tokenizer needs more input.
+     */
+    Document parseAvailable() {
+        try {
+            return doParse();
+        } catch (IOException e) {
+            throw new CanNeverHappenException("Fed tokenizers are never read from input", e);
+        }
+    }
+
+    static Document read(ByteInput input, URL baseUrl, ParserSettings settings) throws IOException {
+        return new Utf8Reader(baseUrl, input, tokenizer(input), settings).doParse();
+    }
+
+    static Utf8Tokenizer tokenizer(ByteBuffer input) {
+        Charset charset = detectCharset(input);
+        if (charset != null) {
+            input = StandardCharsets.UTF_8.encode(charset.decode(input.duplicate()));
+        }
+        return new Utf8Tokenizer(input.duplicate());
+    }
+
+    /**
+     * Returns a tokenizer fed with the first chunk of the input. Input in
+     * other encodings than UTF-8 is read completely and transcoded.
+     */
+    static Utf8Tokenizer tokenizer(ByteInput input) throws IOException {
+        ByteBuffer chunk = input.read();
+        if (chunk == null) {
+            chunk = ByteBuffer.allocate(0);
+        }
+        if (detectCharset(chunk) == null) {
+            return input.tokenizer(chunk);
+        }
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (chunk != null) {
+            while (chunk.hasRemaining()) {
+                int length = Math.min(buffer.length, chunk.remaining());
+                chunk.get(buffer, 0, length);
+                all.write(buffer, 0, length);
+            }
+            chunk = input.read();
+        }
+        return tokenizer(ByteBuffer.wrap(all.toByteArray()));
+    }
+
+    /**
+     * Returns the charset to transcode from, or null if the input can be
+     * tokenized as UTF-8 directly.
+     */
+    static Charset detectCharset(ByteBuffer input) {
+        int start = input.position();
+        if (input.remaining() >= 2) {
+            int b0 = input.get(start) & 0xff, b1 = input.get(start + 1) & 0xff;
+            if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+                return StandardCharsets.UTF_16;
+            } else if (b0 == 0 && b1 == '<') {
+                return StandardCharsets.UTF_16BE;
+            } else if (b0 == '<' && b1 == 0) {
+                return StandardCharsets.UTF_16LE;
+            }
+        }
+        String encoding = declaredEncoding(input);
+        if (encoding == null) return null;
+        if (isUtf8(encoding)) {
+            return null;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new MalformedXMLException("Unsupported encoding " + encoding, 1);
+        }
+    }
+
+    /** Whether input in the declared encoding can be tokenized as UTF-8 */
+    static boolean isUtf8(String encoding) {
+        String normalized = encoding.toUpperCase().replace("-", "").replace("_", "");
+        return normalized.equals("UTF8") || normalized.equals("ASCII") || normalized.equals("USASCII");
+    }
+
+    private static String declaredEncoding(ByteBuffer input) {
+        int end = Math.min(input.limit(), input.position() + 200);
+        StringBuilder declaration = new StringBuilder();
+        for (int i = input.position(); i < end; i++) {
+            char c = (char) (input.get(i) & 0xff);
+            declaration.append(c);
+            if (c == '>') break;
+        }
+        String prolog = declaration.toString();
+        if (!prolog.startsWith("<?xml") && !prolog.startsWith("\u00ef\u00bb\u00bf<?xml")) return null;
+        int pos = prolog.indexOf("encoding");
+        if (pos < 0) return null;
+        int quote = pos + "encoding".length();
+        while (quote < prolog.length() && prolog.charAt(quote) != '"' && prolog.charAt(quote) != '\'') quote++;
+        if (quote >= prolog.length()) return null;
+        int endQuote = prolog.indexOf(prolog.charAt(quote), quote + 1);
+        return endQuote < 0 ? null : prolog.substring(quote + 1, endQuote);
+    }
+
+    private int nextEvent() throws IOException {
+        return input != null ? input.next(tokenizer) : tokenizer.next();
+    }
+
+    private Document doParse() throws IOException {
+        while (true) {
+            switch (nextEvent()) {
+            case START_ELEMENT:
+                flushText();
+                Element element = tokenizer.createElement(settings.isLineNumbers());
+                if (elementStack.isEmpty()) {
+                    document.setRootElement(element);
+                } else {
+                    current().add(element);
+                }
+                elementStack.push(element);
+                break;
+            case END_ELEMENT:
+                flushText();
+                elementStack.pop();
+                break;
+            case CHARACTERS:
+                addText(tokenizer.getText(), false);
+                break;
+            case CDATA:
+                addText(tokenizer.getText(), settings.isReportCdata() && !settings.isCoalescing());
+                break;
+            case COMMENT:
+                if (!elementStack.isEmpty()) {
+                    flushText();
+                    current().add(comment(tokenizer.getText()));
+                }
+                break;
+            case START_DOCUMENT:
+                if (tokenizer.getVersion() != null) {
+                    document.setVersion(tokenizer.getVersion());
+                }
+                if (tokenizer.getEncoding() != null) {
+                    document.setEncoding(tokenizer.getEncoding());
+                }
+                break;
+            case DTD:
+                document.addDTD(tokenizer.getText());
+                break;
+            case PROCESSING_INSTRUCTION:
+                break;
+            case END_DOCUMENT:
+                return document;
+            case Utf8Tokenizer.NEED_INPUT:
+                return null;
+            default:
+                throw new IllegalStateException("Unknown event type " + tokenizer.getEventType());
+            }
+        }
+    }
+
+    private void addText(String text, boolean cdata) {
+        if (cdata) {
+            flushText();
+            current().add(cdata(text));
+        } else if (settings.isCoalescing()) {
+            if (pendingText == null) {
+                pendingText = new StringBuilder(text);
+            } else {
+                pendingText.append(text);
+            }
+        } else if (!settings.isIgnorable(text)) {
+            current().add(text(text));
+        }
+    }
+
+    private void flushText() {
+        if (pendingText != null) {
+            if (!settings.isIgnorable(pendingText)) {
+                current().add(text(pendingText));
+            }
+            pendingText = null;
+        }
+    }
+
+    private Element current() {
+        return elementStack.peek();
+    }
+
+}
@@ -0,0 +1,1212 @@
+package org.eaxy;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * A pull tokenizer that works directly on UTF-8 bytes. It reports the same
+ * event types as {@link javax.xml.stream.XMLStreamReader}, but resolves names
+ * straight into Eaxy objects. The tokenizer either reads a buffer in place
+ * ({@link #Utf8Tokenizer(ByteBuffer)}) or is fed chunk by chunk
+ * ({@link #feed(ByteBuffer)}), in which case {@link #next()} returns
+ * {@link #NEED_INPUT} when a token isn't complete yet. A buffer that is
+ * read in place, like a memory mapped region of a file, can be followed by
+ * another one with {@link #continueWith(ByteBuffer, boolean)}.
+ */
+final class Utf8Tokenizer implements XMLStreamConstants {
+
+    static final int NEED_INPUT = -1;
+
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private static final int NON_ASCII = 1, AMPERSAND = 2, CARRIAGE_RETURN = 4, WHITESPACE = 8;
+
+    private static final int RAW = 0, TEXT = 1, ATTRIBUTE = 2;
+
+    private static final int NAME_CACHE_SIZE = 512;
+    private static final int WHITESPACE_CACHE_SIZE = 64, MAX_CACHED_WHITESPACE = 64;
+
+    /** Thrown internally when a token runs past the available input */
+    private static final class Underflow extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Underflow() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Underflow UNDERFLOW = new Underflow();
+
+    /** The input, read with absolute gets from <code>pos</code> up to <code>limit</code> */
+    private ByteBuffer data;
+    /** The array behind <code>data</code>, or null for direct and mapped buffers */
+    private byte[] array;
+    private int arrayOffset;
+    /** A view of direct and mapped input, for copying tokens out in bulk */
+    private ByteBuffer view;
+    /** The array that is fed, for tokenizers that copy their input */
+    private byte[] buffer;
+    private byte[] scratch = new byte[256];
+    private final boolean fed;
+    private boolean endOfInput;
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private int tokenStart;
+    private int tokenLine;
+    private int mark = -1;
+
+    private boolean started;
+    private boolean rootSeen;
+    private boolean pendingEndElement;
+    private int eventType = -2;
+    private String version;
+    private String encoding;
+
+    private int textStart, textEnd, textFlags;
+
+    /**
+     * Where scanning of unfinished text, a comment, CDATA or a processing
+     * instruction starting at <code>resumeToken</code> stopped for lack of
+     * input, so it continues there after {@link #feed(ByteBuffer)} instead
+     * of scanning the whole token again. -1 when there is nothing to resume.
+     */
+    private int resumeToken = -1, resumeAt, resumeFlags, resumeLine;
+
+    private int depth;
+    /** Open elements inside the element {@link #skipElement()} is skipping */
+    private int skipDepth;
+    private String[] openTags = new String[16];
+    private int[] namespaceMarks = new int[16];
+    private String[] namespacePrefixes = new String[8];
+    private String[] namespaceUris = new String[8];
+    private int namespaceCount;
+
+    private String prefix, localName, namespaceUri;
+    private int attributeCount;
+    private int[] attributes = new int[6 * 8];
+    private String[] attributeUris = new String[8];
+
+    private final String[] names = new String[NAME_CACHE_SIZE];
+    private final QualifiedName[] qualifiedNames = new QualifiedName[NAME_CACHE_SIZE];
+    private final String[] rawWhitespace = new String[WHITESPACE_CACHE_SIZE];
+    private final String[] whitespace = new String[WHITESPACE_CACHE_SIZE];
+    private SymbolTable symbols;
+
+    /** Reads the buffer in place, without copying it */
+    Utf8Tokenizer(ByteBuffer input) {
+        this(input, true);
+    }
+
+    /** Reads the buffer in place. Unless it's the <code>last</code>, more input follows with {@link #continueWith} */
+    Utf8Tokenizer(ByteBuffer input, boolean last) {
+        setData(input);
+        this.pos = input.position();
+        this.limit = input.limit();
+        this.fed = false;
+        this.endOfInput = last;
+    }
+
+    Utf8Tokenizer() {
+        this.buffer = new byte[8192];
+        setData(ByteBuffer.wrap(buffer));
+        this.limit = 0;
+        this.fed = true;
+    }
+
+    /** Use a shared table for names and namespaces instead of one per tokenizer */
+    void setSymbolTable(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /** Append the remaining bytes of <code>chunk</code> to the input */
+    void feed(ByteBuffer chunk) {
+        if (!fed) throw new IllegalStateException("Tokenizer wraps a complete buffer");
+        if (endOfInput) throw new IllegalStateException("Input already ended");
+        int length = chunk.remaining();
+        if (limit + length > buffer.length) {
+            // Only the unfinished token and anything after the mark is still needed
+            int discard = eventType == NEED_INPUT ? pos : 0;
+            if (mark >= 0) {
+                discard = Math.min(discard, mark);
+            }
+            int keep = limit - discard;
+            byte[] target = buffer;
+            if (keep + length > target.length) {
+                target = new byte[Math.max(keep + length, target.length * 2)];
+            }
+            System.arraycopy(buffer, discard, target, 0, keep);
+            buffer = target;
+            setData(ByteBuffer.wrap(buffer));
+            discard(discard);
+            limit = keep;
+        }
+        chunk.get(buffer, limit, length);
+        limit += length;
+    }
+
+    /**
+     * The position of the first byte that is still needed: the start of
+     * the unfinished token, or the mark. The buffer given to
+     * {@link #continueWith(ByteBuffer, boolean)} must start there.
+     */
+    int getRetainedPosition() {
+        return mark >= 0 ? Math.min(mark, pos) : pos;
+    }
+
+    /**
+     * Continues reading in place from <code>input</code>, which holds the
+     * current input from {@link #getRetainedPosition()} and what follows.
+     * Call it when {@link #next()} returns {@link #NEED_INPUT}.
+     */
+    void continueWith(ByteBuffer input, boolean last) {
+        if (fed) throw new IllegalStateException("Tokenizer is fed");
+        discard(getRetainedPosition() - input.position());
+        setData(input);
+        limit = input.limit();
+        endOfInput = last;
+    }
+
+    private void setData(ByteBuffer input) {
+        data = input;
+        if (input.hasArray()) {
+            array = input.array();
+            arrayOffset = input.arrayOffset();
+            view = null;
+        } else {
+            array = null;
+            arrayOffset = 0;
+            view = input.duplicate();
+        }
+    }
+
+    /** Moves the positions in the input back after the first bytes are discarded */
+    private void discard(int count) {
+        if (mark >= 0) mark -= count;
+        if (resumeToken == pos) {
+            resumeToken -= count;
+            resumeAt -= count;
+        } else {
+            resumeToken = -1;
+        }
+        pos -= count;
+        tokenStart -= count;
+    }
+
+    void endOfInput() {
+        this.endOfInput = true;
+    }
+
+    boolean isEndOfInput() {
+        return endOfInput;
+    }
+
+    int getEventType() {
+        return eventType;
+    }
+
+    int getLineNumber() {
+        return line;
+    }
+
+    /** The byte offset of the next unread token */
+    int getPosition() {
+        return pos;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    /** The line where the current token starts */
+    int getTokenLineNumber() {
+        return tokenLine;
+    }
+
+    void setLineNumber(int line) {
+        this.line = line;
+    }
+
+    /** Keep the input from the start of the current token until {@link #marked()} is called */
+    void mark() {
+        mark = tokenStart;
+    }
+
+    /** The input from the mark up to the current position */
+    ByteBuffer marked() {
+        if (mark < 0) throw new IllegalStateException("No mark");
+        int start = mark;
+        mark = -1;
+        if (fed) {
+            return ByteBuffer.wrap(Arrays.copyOfRange(buffer, start, pos));
+        }
+        // Buffers read in place are never modified, so they can be shared
+        ByteBuffer marked = data.duplicate();
+        // Cast to Buffer to stay binary compatible with Java 8
+        ((Buffer) marked).limit(pos).position(start);
+        return marked.slice();
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    /** Whether the XML declaration, if any, has been read */
+    boolean isStarted() {
+        return started;
+    }
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    int next() {
+        if (pendingEndElement) {
+            pendingEndElement = false;
+            popElement();
+            return eventType = END_ELEMENT;
+        }
+        if (eventType == END_DOCUMENT) {
+            throw new IllegalStateException("No more events");
+        }
+        try {
+            return eventType = scanToken();
+        } catch (Underflow e) {
+            pos = tokenStart;
+            line = tokenLine;
+            if (endOfInput) {
+                throw error("Unexpected end of document");
+            }
+            return eventType = NEED_INPUT;
+        }
+    }
+
+    /**
+     * Skips the rest of the innermost open element, up to and including
+     * its end tag, and returns END_ELEMENT. Nested tags are only counted:
+     * their names, attributes and namespaces are not decoded or checked,
+     * and no text is decoded. Returns NEED_INPUT if the end tag isn't
+     * available yet. Call it again after feeding more input.
+     */
+    int skipElement() {
+        if (depth == 0) {
+            throw new IllegalStateException("No open element");
+        }
+        if (pendingEndElement) {
+            pendingEndElement = false;
+            popElement();
+            return eventType = END_ELEMENT;
+        }
+        try {
+            while (true) {
+                tokenStart = pos;
+                tokenLine = line;
+                if (pos >= limit) {
+                    if (!endOfInput) throw UNDERFLOW;
+                    throw error("Unexpected end of document inside <" + openTags[depth-1] + ">");
+                }
+                if (get(pos) != '<') {
+                    // Text doesn't have to be complete, so it is consumed as far as it goes
+                    int i = pos;
+                    while (i < limit && get(i) != '<') {
+                        if (get(i) == '\n') line++;
+                        i++;
+                    }
+                    pos = i;
+                    continue;
+                }
+                byte next = at(pos + 1);
+                if (next == '/') {
+                    if (skipDepth == 0) {
+                        scanEndTag();
+                        return eventType = END_ELEMENT;
+                    }
+                    skipTag();
+                    skipDepth--;
+                } else if (next == '?') {
+                    scanProcessingInstruction();
+                } else if (next == '!') {
+                    if (at(pos + 2) == '-') {
+                        scanComment();
+                    } else if (at(pos + 2) == '[') {
+                        scanCdata();
+                    } else {
+                        scanDoctype();
+                    }
+                } else if (!skipTag()) {
+                    skipDepth++;
+                }
+            }
+        } catch (Underflow e) {
+            pos = tokenStart;
+            line = tokenLine;
+            if (endOfInput) {
+                throw error("Unexpected end of document");
+            }
+            return eventType = NEED_INPUT;
+        }
+    }
+
+    /** Moves past a start or end tag without decoding it. Returns true if it was an empty element tag */
+    private boolean skipTag() {
+        int i = pos + 1;
+        int lines = line;
+        byte quote = 0;
+        byte b;
+        while ((b = at(i)) != '>' || quote != 0) {
+            if (b == '\n') {
+                lines++;
+            } else if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            }
+            i++;
+        }
+        pos = i + 1;
+        line = lines;
+        return get(i - 1) == '/';
+    }
+
+    private int scanToken() {
+        if (!started) {
+            tokenStart = pos;
+            tokenLine = line;
+            scanProlog();
+            started = true;
+            return START_DOCUMENT;
+        }
+        while (true) {
+            tokenStart = pos;
+            tokenLine = line;
+            if (pos >= limit) {
+                if (!endOfInput) throw UNDERFLOW;
+                if (depth > 0) throw error("Unexpected end of document inside <" + openTags[depth-1] + ">");
+                if (!rootSeen) throw error("Premature end of file");
+                return END_DOCUMENT;
+            }
+            if (get(pos) != '<') {
+                scanText();
+                if (depth == 0) {
+                    if (!isWhitespace(textStart, textEnd)) {
+                        throw error("Content is not allowed " + (rootSeen ? "in trailing section" : "in prolog"));
+                    }
+                    continue;
+                }
+                return CHARACTERS;
+            }
+            byte next = at(pos + 1);
+            if (next == '/') {
+                scanEndTag();
+                return END_ELEMENT;
+            } else if (next == '?') {
+                scanProcessingInstruction();
+                return PROCESSING_INSTRUCTION;
+            } else if (next == '!') {
+                if (at(pos + 2) == '-') {
+                    scanComment();
+                    return COMMENT;
+                } else if (at(pos + 2) == '[') {
+                    scanCdata();
+                    return CDATA;
+                } else {
+                    scanDoctype();
+                    return DTD;
+                }
+            } else {
+                if (depth == 0 && rootSeen) throw error("Only one root element is allowed");
+                scanStartTag();
+                return START_ELEMENT;
+            }
+        }
+    }
+
+    private void scanProlog() {
+        if (at(pos) == (byte)0xEF && at(pos + 1) == (byte)0xBB && at(pos + 2) == (byte)0xBF) {
+            pos += 3;
+        }
+        if (at(pos) == '<' && at(pos + 1) == '?' && at(pos + 2) == 'x' && at(pos + 3) == 'm' && at(pos + 4) == 'l'
+                && isWhitespace(at(pos + 5))) {
+            int end = indexOf("?>", pos + 5);
+            int i = pos + 5;
+            while (i < end) {
+                i = skipWhitespace(i);
+                if (i >= end) break;
+                int nameEnd = i;
+                while (at(nameEnd) != '=' && !isWhitespace(at(nameEnd))) nameEnd++;
+                String name = ascii(i, nameEnd);
+                i = skipWhitespace(nameEnd);
+                if (at(i) != '=') throw error("Malformed XML declaration");
+                i = skipWhitespace(i + 1);
+                byte quote = at(i);
+                if (quote != '"' && quote != '\'') throw error("Malformed XML declaration");
+                int valueEnd = i + 1;
+                while (at(valueEnd) != quote) valueEnd++;
+                String value = ascii(i + 1, valueEnd);
+                if (name.equals("version")) {
+                    version = value;
+                } else if (name.equals("encoding")) {
+                    encoding = value;
+                }
+                i = valueEnd + 1;
+            }
+            pos = end + 2;
+        }
+    }
+
+    private void scanText() {
+        int i = pos;
+        int flags = 0;
+        int lines = line;
+        if (resumeToken == pos) {
+            i = resumeAt;
+            flags = resumeFlags;
+            lines = resumeLine;
+        }
+        byte b;
+        while (true) {
+            if (i >= limit) {
+                if (!endOfInput) {
+                    resume(i, flags, lines);
+                    throw UNDERFLOW;
+                }
+                if (depth > 0) throw UNDERFLOW;
+                break;
+            }
+            b = get(i);
+            if (b > '<') {
+                // Letters and most punctuation need no further checks
+                if (b == '>' && i - 2 >= pos && get(i - 1) == ']' && get(i - 2) == ']') {
+                    line = lines;
+                    throw error("The character sequence \"]]>\" must not appear in content");
+                }
+                i++;
+                continue;
+            }
+            if (b == '<') break;
+            if (b < 0) {
+                flags |= NON_ASCII;
+            } else if (b == '&') {
+                flags |= AMPERSAND;
+            } else if (b == '\n') {
+                lines++;
+            } else if (b == '\r') {
+                flags |= CARRIAGE_RETURN;
+            }
+            i++;
+        }
+        textStart = pos;
+        textEnd = i;
+        textFlags = flags;
+        line = lines;
+        pos = i;
+        resumeToken = -1;
+    }
+
+    private void resume(int at, int flags, int lines) {
+        resumeToken = pos;
+        resumeAt = at;
+        resumeFlags = flags;
+        resumeLine = lines;
+    }
+
+    private void scanComment() {
+        if (at(pos + 3) != '-') throw error("Malformed comment");
+        int end = indexOf("-->", pos + 4);
+        textStart = pos + 4;
+        textEnd = end;
+        textFlags = flagsOf(textStart, textEnd);
+        pos = end + 3;
+    }
+
+    private void scanCdata() {
+        if (at(pos + 3) != 'C' || at(pos + 4) != 'D' || at(pos + 5) != 'A' || at(pos + 6) != 'T'
+                || at(pos + 7) != 'A' || at(pos + 8) != '[') {
+            throw error("Malformed CDATA section");
+        }
+        if (depth == 0) throw error("CDATA is not allowed outside the root element");
+        int end = indexOf("]]>", pos + 9);
+        textStart = pos + 9;
+        textEnd = end;
+        textFlags = flagsOf(textStart, textEnd);
+        pos = end + 3;
+    }
+
+    private void scanDoctype() {
+        int i = pos + 2;
+        int brackets = 0;
+        byte quote = 0;
+        while (true) {
+            byte b = at(i);
+            if (b == '\n') line++;
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets == 0) {
+                break;
+            }
+            i++;
+        }
+        textStart = pos;
+        textEnd = i + 1;
+        textFlags = flagsOf(textStart, textEnd);
+        pos = i + 1;
+    }
+
+    private void scanProcessingInstruction() {
+        int end = indexOf("?>", pos + 2);
+        textStart = pos + 2;
+        textEnd = end;
+        textFlags = flagsOf(textStart, textEnd);
+        pos = end + 2;
+    }
+
+    private void scanStartTag() {
+        int i = pos + 1;
+        int nameStart = i;
+        int colon = -1;
+        while (true) {
+            byte b = at(i);
+            if (b == ':' && colon < 0) {
+                colon = i;
+            } else if (b == '>' || b == '/' || isWhitespace(b)) {
+                break;
+            } else if (!isNameChar(b)) {
+                throw error("Invalid character '" + (char) b + "' in element name");
+            }
+            i++;
+        }
+        int nameEnd = i;
+        if (nameEnd == nameStart) throw error("Missing element name");
+        if (!isNameStart(get(nameStart))) throw error("Invalid element name <" + ascii(nameStart, nameEnd) + ">");
+
+        int count = 0;
+        int lines = line;
+        boolean empty;
+        while (true) {
+            byte b = at(i);
+            if (isWhitespace(b)) {
+                if (b == '\n') lines++;
+                i++;
+                continue;
+            }
+            if (b == '>') {
+                empty = false;
+                i++;
+                break;
+            }
+            if (b == '/') {
+                if (at(i + 1) != '>') throw error("Expected '>' after '/' in <" + ascii(nameStart, nameEnd) + ">");
+                empty = true;
+                i += 2;
+                break;
+            }
+            int attrStart = i;
+            int attrColon = -1;
+            while (true) {
+                b = at(i);
+                if (b == ':' && attrColon < 0) {
+                    attrColon = i;
+                } else if (b == '=' || isWhitespace(b) || b == '>' || b == '/') {
+                    break;
+                } else if (!isNameChar(b)) {
+                    throw error("Invalid character '" + (char) b + "' in attribute name");
+                }
+                i++;
+            }
+            int attrEnd = i;
+            if (!isNameStart(get(attrStart))) throw error("Invalid attribute name " + ascii(attrStart, attrEnd));
+            while (isWhitespace(b = at(i))) {
+                if (b == '\n') lines++;
+                i++;
+            }
+            if (b != '=') throw error("Attribute " + ascii(attrStart, attrEnd) + " must be followed by '='");
+            i++;
+            while (isWhitespace(b = at(i))) {
+                if (b == '\n') lines++;
+                i++;
+            }
+            if (b != '"' && b != '\'') throw error("Attribute value must be quoted");
+            byte quote = b;
+            int valueStart = ++i;
+            int flags = 0;
+            while ((b = at(i)) != quote) {
+                if (b < 0) {
+                    flags |= NON_ASCII;
+                } else if (b == '&') {
+                    flags |= AMPERSAND;
+                } else if (b == '<') {
+                    throw error("'<' is not allowed in attribute values");
+                } else if (b == '\n') {
+                    lines++;
+                    flags |= WHITESPACE;
+                } else if (b == '\r') {
+                    flags |= CARRIAGE_RETURN | WHITESPACE;
+                } else if (b == '\t') {
+                    flags |= WHITESPACE;
+                }
+                i++;
+            }
+            if (attributes.length < (count + 1) * 6) {
+                attributes = Arrays.copyOf(attributes, attributes.length * 2);
+            }
+            int offset = count * 6;
+            for (int other = 0; other < offset; other += 6) {
+                if (isSameBytes(attributes[other], attributes[other + 1], attrStart, attrEnd)) {
+                    throw error("Attribute " + ascii(attrStart, attrEnd) + " was already specified for <" + ascii(nameStart, nameEnd) + ">");
+                }
+            }
+            attributes[offset] = attrStart;
+            attributes[offset + 1] = attrEnd;
+            attributes[offset + 2] = attrColon;
+            attributes[offset + 3] = valueStart;
+            attributes[offset + 4] = i;
+            attributes[offset + 5] = flags;
+            count++;
+            i++;
+        }
+        // The whole tag is available - commit the token
+        pos = i;
+        line = lines;
+        attributeCount = count;
+        rootSeen = true;
+        pushElement(nameStart, nameEnd, colon);
+        pendingEndElement = empty;
+    }
+
+    private void pushElement(int nameStart, int nameEnd, int colon) {
+        if (depth == openTags.length) {
+            openTags = Arrays.copyOf(openTags, depth * 2);
+            namespaceMarks = Arrays.copyOf(namespaceMarks, depth * 2);
+        }
+        namespaceMarks[depth] = namespaceCount;
+        String qName = name(nameStart, nameEnd);
+        openTags[depth++] = qName;
+
+        for (int i = 0; i < attributeCount; i++) {
+            int offset = i * 6;
+            int attrStart = attributes[offset], attrEnd = attributes[offset + 1], attrColon = attributes[offset + 2];
+            if (attrColon < 0 && attrEnd - attrStart == 5 && startsWith(attrStart, "xmlns")) {
+                declareNamespace(null, attributeValue(i));
+            } else if (attrColon == attrStart + 5 && startsWith(attrStart, "xmlns")) {
+                declareNamespace(name(attrColon + 1, attrEnd), attributeValue(i));
+            }
+        }
+
+        if (colon < 0) {
+            prefix = null;
+            localName = qName;
+            namespaceUri = lookupNamespace(null);
+        } else {
+            prefix = name(nameStart, colon);
+            localName = name(colon + 1, nameEnd);
+            namespaceUri = lookupNamespace(prefix);
+            if (namespaceUri == null) {
+                throw error("The prefix \"" + prefix + "\" for element \"" + qName + "\" is not bound");
+            }
+        }
+
+        if (attributeUris.length < attributeCount) {
+            attributeUris = new String[Math.max(attributeCount, attributeUris.length * 2)];
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            int offset = i * 6;
+            int attrColon = attributes[offset + 2];
+            if (attrColon < 0 || isNamespaceDeclaration(i)) {
+                attributeUris[i] = null;
+            } else {
+                String attrPrefix = name(attributes[offset], attrColon);
+                String uri = lookupNamespace(attrPrefix);
+                if (uri == null) {
+                    throw error("The prefix \"" + attrPrefix + "\" for attribute \""
+                            + name(attributes[offset], attributes[offset + 1]) + "\" is not bound");
+                }
+                attributeUris[i] = uri;
+            }
+        }
+    }
+
+    private void declareNamespace(String prefix, String uri) {
+        if (namespaceCount == namespacePrefixes.length) {
+            namespacePrefixes = Arrays.copyOf(namespacePrefixes, namespaceCount * 2);
+            namespaceUris = Arrays.copyOf(namespaceUris, namespaceCount * 2);
+        }
+        namespacePrefixes[namespaceCount] = prefix;
+        namespaceUris[namespaceCount] = uri;
+        namespaceCount++;
+    }
+
+    private String lookupNamespace(String prefix) {
+        for (int i = namespaceCount - 1; i >= 0; i--) {
+            if (Objects.equals(prefix, namespacePrefixes[i])) {
+                return namespaceUris[i].isEmpty() && prefix == null ? null : namespaceUris[i];
+            }
+        }
+        if ("xml".equals(prefix)) return XML_NS;
+        return null;
+    }
+
+    private void scanEndTag() {
+        int i = pos + 2;
+        int nameStart = i;
+        byte b;
+        while ((b = at(i)) != '>' && !isWhitespace(b)) i++;
+        int nameEnd = i;
+        int lines = line;
+        while ((b = at(i)) != '>') {
+            if (!isWhitespace(b)) throw error("Malformed end tag");
+            if (b == '\n') lines++;
+            i++;
+        }
+        if (depth == 0) throw error("Unexpected end tag </" + name(nameStart, nameEnd) + ">");
+        String expected = openTags[depth - 1];
+        if (!matches(nameStart, nameEnd, expected)) {
+            throw error("The element type \"" + expected + "\" must be terminated by the matching end-tag \"</"
+                    + expected + ">\"");
+        }
+        pos = i + 1;
+        line = lines;
+        popElement();
+    }
+
+    private void popElement() {
+        depth--;
+        namespaceCount = namespaceMarks[depth];
+        openTags[depth] = null;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    String getLocalName() {
+        return localName;
+    }
+
+    /** The resolved namespace URI of the current element, or null */
+    String getNamespaceURI() {
+        return namespaceUri;
+    }
+
+    /** The namespace declarations in scope for the current element */
+    String[][] getNamespaceContext() {
+        String[][] result = new String[namespaceCount][];
+        for (int i = 0; i < namespaceCount; i++) {
+            result[i] = new String[] { namespacePrefixes[i], namespaceUris[i] };
+        }
+        return result;
+    }
+
+    /** Bind namespaces declared outside of the input, as when parsing a fragment */
+    void declareNamespaces(String[][] namespaces) {
+        for (String[] namespace : namespaces) {
+            declareNamespace(namespace[0], namespace[1]);
+        }
+    }
+
+    int getAttributeCount() {
+        return attributeCount;
+    }
+
+    boolean isNamespaceDeclaration(int index) {
+        int offset = index * 6;
+        int attrStart = attributes[offset], attrEnd = attributes[offset + 1], attrColon = attributes[offset + 2];
+        return startsWith(attrStart, "xmlns") && (attrColon == attrStart + 5 || (attrColon < 0 && attrEnd - attrStart == 5));
+    }
+
+    String getAttributePrefix(int index) {
+        int offset = index * 6;
+        return attributes[offset + 2] < 0 ? null : name(attributes[offset], attributes[offset + 2]);
+    }
+
+    String getAttributeLocalName(int index) {
+        int offset = index * 6;
+        int colon = attributes[offset + 2];
+        return name(colon < 0 ? attributes[offset] : colon + 1, attributes[offset + 1]);
+    }
+
+    String getAttributeNamespaceURI(int index) {
+        return attributeUris[index];
+    }
+
+    String attributeValue(int index) {
+        int offset = index * 6;
+        return decode(attributes[offset + 3], attributes[offset + 4], attributes[offset + 5], ATTRIBUTE);
+    }
+
+    /** The text of the current CHARACTERS, CDATA, COMMENT, DTD or PROCESSING_INSTRUCTION event */
+    String getText() {
+        if (eventType == CHARACTERS && textEnd - textStart <= MAX_CACHED_WHITESPACE && isWhitespace(textStart, textEnd)) {
+            return whitespace(textStart, textEnd);
+        }
+        return decode(textStart, textEnd, textFlags, eventType == CHARACTERS ? TEXT : RAW);
+    }
+
+    boolean isWhitespace() {
+        return isWhitespace(textStart, textEnd);
+    }
+
+    Element createElement(boolean lineNumbers) {
+        QualifiedName name = qualifiedName(namespaceUri, localName, prefix);
+        Element element = lineNumbers ? new Element(name, line) : new Element(name);
+        for (int i = namespaceMarks[depth - 1]; i < namespaceCount; i++) {
+            if (!namespaceUris[i].isEmpty()) {
+                element.namespace(symbols().namespace(namespaceUris[i], namespacePrefixes[i]));
+            }
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            if (isNamespaceDeclaration(i)) continue;
+            element.attr(qualifiedName(attributeUris[i], getAttributeLocalName(i), getAttributePrefix(i)),
+                    attributeValue(i));
+        }
+        return element;
+    }
+
+    /** Recently seen names are kept in a small cache in front of the symbol table */
+    private QualifiedName qualifiedName(String uri, String localName, String prefix) {
+        int hash = localName.hashCode() * 31 + (uri == null ? 0 : uri.hashCode());
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        QualifiedName name = qualifiedNames[slot];
+        if (name == null || !name.getName().equals(localName)
+                || !Objects.equals(name.getNamespace().getUri(), uri == null || uri.isEmpty() ? null : uri)
+                || !Objects.equals(name.getNamespace().getPrefix(), prefix)) {
+            name = symbols().name(uri, localName, prefix);
+            qualifiedNames[slot] = name;
+        }
+        return name;
+    }
+
+    private SymbolTable symbols() {
+        if (symbols == null) {
+            symbols = new SymbolTable(false);
+        }
+        return symbols;
+    }
+
+    MalformedXMLException error(String message) {
+        return new MalformedXMLException(message, line);
+    }
+
+    private byte at(int i) {
+        if (i >= limit) throw UNDERFLOW;
+        return get(i);
+    }
+
+    /** Heap input is read from its array, which is considerably faster than going through the buffer */
+    private byte get(int i) {
+        return array != null ? array[arrayOffset + i] : data.get(i);
+    }
+
+    private int indexOf(String terminator, int from) {
+        byte first = (byte) terminator.charAt(0);
+        int i = from;
+        int lines = line;
+        if (resumeToken == pos) {
+            i = resumeAt;
+            lines = resumeLine;
+        }
+        try {
+            while (true) {
+                byte b = at(i);
+                if (b == '\n') {
+                    lines++;
+                } else if (b == first) {
+                    int j = 1;
+                    while (j < terminator.length() && at(i + j) == terminator.charAt(j)) j++;
+                    if (j == terminator.length()) {
+                        line = lines;
+                        resumeToken = -1;
+                        return i;
+                    }
+                }
+                i++;
+            }
+        } catch (Underflow e) {
+            resume(i, 0, lines);
+            throw e;
+        }
+    }
+
+    private int skipWhitespace(int i) {
+        while (isWhitespace(at(i))) i++;
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    /** Rejects the ASCII characters that can't start a name. Other characters are accepted unchecked */
+    private static boolean isNameStart(byte b) {
+        return b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == ':';
+    }
+
+    /** Rejects the ASCII characters that can't be part of a name. Other characters are accepted unchecked */
+    private static boolean isNameChar(byte b) {
+        return isNameStart(b) || (b >= '0' && b <= '9') || b == '-' || b == '.';
+    }
+
+    private boolean isSameBytes(int start, int end, int otherStart, int otherEnd) {
+        if (end - start != otherEnd - otherStart) return false;
+        for (int i = 0; i < end - start; i++) {
+            if (get(start + i) != get(otherStart + i)) return false;
+        }
+        return true;
+    }
+
+    private boolean isWhitespace(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(get(i))) return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(int start, String s) {
+        if (start + s.length() > limit) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (get(start + i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean matches(int start, int end, String name) {
+        return isSameAscii(start, end, name) || name.equals(decode(start, end, NON_ASCII, RAW));
+    }
+
+    private boolean isSameAscii(int start, int end, String name) {
+        int length = end - start;
+        if (length != name.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (get(start + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int flagsOf(int start, int end) {
+        int flags = 0;
+        for (int i = start; i < end; i++) {
+            byte b = get(i);
+            if (b < 0) {
+                flags |= NON_ASCII;
+            } else if (b == '&') {
+                flags |= AMPERSAND;
+            } else if (b == '\r') {
+                flags |= CARRIAGE_RETURN;
+            }
+        }
+        return flags;
+    }
+
+    /** Indentation between elements repeats as much as names */
+    private String whitespace(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + get(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (WHITESPACE_CACHE_SIZE - 1);
+        String raw = rawWhitespace[slot];
+        if (raw == null || !isSameAscii(start, end, raw)) {
+            rawWhitespace[slot] = ascii(start, end);
+            whitespace[slot] = decode(start, end, textFlags, TEXT);
+        }
+        return whitespace[slot];
+    }
+
+    /** Names repeat a lot, so recently seen ASCII names are reused instead of decoded again */
+    private String name(int start, int end) {
+        int hash = 0;
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            byte b = get(i);
+            hash = 31 * hash + b;
+            if (b < 0) ascii = false;
+        }
+        if (!ascii) {
+            return decode(start, end, NON_ASCII, RAW);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String name = names[slot];
+        if (name == null || !isSameAscii(start, end, name)) {
+            name = decode(start, end, 0, RAW);
+            names[slot] = name;
+        }
+        return name;
+    }
+
+    private String ascii(int start, int end) {
+        return decode(start, end, 0, RAW);
+    }
+
+    private String decode(int start, int end, int flags, int mode) {
+        int length = end - start;
+        if (length == 0) return "";
+        int significant = mode == RAW ? CARRIAGE_RETURN
+                : mode == TEXT ? AMPERSAND | CARRIAGE_RETURN
+                : AMPERSAND | CARRIAGE_RETURN | WHITESPACE;
+        if ((flags & NON_ASCII) != 0) {
+            checkUtf8(start, end);
+        }
+        if ((flags & significant) == 0) {
+            return string(start, length, (flags & NON_ASCII) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+        }
+        return unescape(start, end, flags, mode);
+    }
+
+    private String string(int start, int length, Charset charset) {
+        if (array != null) {
+            return new String(array, arrayOffset + start, length, charset);
+        }
+        // Only the token is copied out of a direct or mapped buffer
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ((Buffer) view).limit(start + length).position(start);
+        view.get(scratch, 0, length);
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * Rejects byte sequences that aren't UTF-8, which String would replace
+     * with U+FFFD: stray continuation bytes, truncated sequences, overlong
+     * encodings, surrogates and values above U+10FFFF.
+     */
+    private void checkUtf8(int start, int end) {
+        int i = start;
+        while (i < end) {
+            int b = get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int length, min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                length = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                length = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                length = 4;
+                min = 0x10000;
+            } else {
+                throw error("Invalid UTF-8 byte 0x" + Integer.toHexString(b));
+            }
+            if (i + length > end) {
+                throw error("Incomplete UTF-8 sequence");
+            }
+            int codePoint = b & (0xFF >> (length + 1));
+            for (int j = 1; j < length; j++) {
+                int continuation = get(i + j) & 0xFF;
+                if ((continuation & 0xC0) != 0x80) {
+                    throw error("Invalid UTF-8 byte 0x" + Integer.toHexString(continuation));
+                }
+                codePoint = (codePoint << 6) | (continuation & 0x3F);
+            }
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                throw error("Invalid UTF-8 sequence for U+" + Integer.toHexString(codePoint).toUpperCase());
+            }
+            i += length;
+        }
+    }
+
+    /** Resolves references and normalizes line breaks into scratch. The result is never longer than the input */
+    private String unescape(int start, int end, int flags, int mode) {
+        if (scratch.length < end - start) {
+            scratch = new byte[Math.max(end - start, scratch.length * 2)];
+        }
+        byte[] result = scratch;
+        boolean attribute = mode == ATTRIBUTE;
+        boolean nonAscii = (flags & NON_ASCII) != 0;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = get(i);
+            if (b == '\r') {
+                if (i + 1 < end && get(i + 1) == '\n') i++;
+                result[length++] = attribute ? (byte)' ' : (byte)'\n';
+            } else if (attribute && (b == '\n' || b == '\t')) {
+                result[length++] = ' ';
+            } else if (b == '&' && mode != RAW) {
+                int semicolon = i + 1;
+                while (semicolon < end && get(semicolon) != ';') semicolon++;
+                if (semicolon == end) throw error("Unterminated entity reference");
+                int codePoint = entity(i + 1, semicolon);
+                if (codePoint < 0x80) {
+                    result[length++] = (byte) codePoint;
+                } else {
+                    nonAscii = true;
+                    length = appendUtf8(result, length, codePoint);
+                }
+                i = semicolon;
+            } else {
+                result[length++] = b;
+            }
+        }
+        return new String(result, 0, length, nonAscii ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    private int entity(int start, int end) {
+        if (isSameAscii(start, end, "lt")) {
+            return '<';
+        } else if (isSameAscii(start, end, "gt")) {
+            return '>';
+        } else if (isSameAscii(start, end, "amp")) {
+            return '&';
+        } else if (isSameAscii(start, end, "quot")) {
+            return '"';
+        } else if (isSameAscii(start, end, "apos")) {
+            return '\'';
+        } else if (end - start > 1 && get(start) == '#') {
+            boolean hex = get(start + 1) == 'x';
+            int radix = hex ? 16 : 10;
+            int codePoint = 0;
+            for (int i = start + (hex ? 2 : 1); i < end; i++) {
+                int digit = Character.digit(get(i), radix);
+                if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+                    throw error("Invalid character reference &" + decode(start, end, NON_ASCII, RAW) + ";");
+                }
+                codePoint = codePoint * radix + digit;
+            }
+            if (!isXmlChar(codePoint) || end - start == (hex ? 2 : 1)) {
+                throw error("Invalid character reference &" + decode(start, end, NON_ASCII, RAW) + ";");
+            }
+            return codePoint;
+        } else {
+            throw error("The entity \"" + decode(start, end, NON_ASCII, RAW) + "\" was referenced, but not declared");
+        }
+    }
+
+    /** The characters allowed in XML 1.0 documents */
+    private static boolean isXmlChar(int codePoint) {
+        return codePoint == 0x9 || codePoint == 0xA || codePoint == 0xD
+                || (codePoint >= 0x20 && codePoint <= 0xD7FF)
+                || (codePoint >= 0xE000 && codePoint <= 0xFFFD)
+                || (codePoint >= 0x10000 && codePoint <= Character.MAX_CODE_POINT);
+    }
+
+    private static int appendUtf8(byte[] target, int offset, int codePoint) {
+        if (codePoint < 0x800) {
+            target[offset++] = (byte) (0xC0 | (codePoint >> 6));
+        } else if (codePoint < 0x10000) {
+            target[offset++] = (byte) (0xE0 | (codePoint >> 12));
+            target[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        } else {
+            target[offset++] = (byte) (0xF0 | (codePoint >> 18));
+            target[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            target[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        }
+        target[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+        return offset;
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** Writes the output of a {@link WriterXmlVisitor} to a {@link Writer} */
+final class WriterOutput extends XmlOutput {
+
+    private final Writer writer;
+    /**
+     * Strings are copied here before they're written, as some writers,
+     * like {@link java.io.OutputStreamWriter}, allocate an array for each
+     * string or character they're given
+     */
+    private final char[] chars = new char[1024];
+
+    WriterOutput(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    void write(char c) throws IOException {
+        chars[0] = c;
+        writer.write(chars, 0, 1);
+    }
+
+    @Override
+    void write(String s, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, chars.length);
+            s.getChars(offset, offset + count, chars, 0);
+            writer.write(chars, 0, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    Writer asWriter() {
+        return writer;
+    }
+
+}
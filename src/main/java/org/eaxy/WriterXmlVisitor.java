@@ -3,7 +3,6 @@ package org.eaxy;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collection;
-import java.util.Stack;
 
 import org.eaxy.Xml.CDataElement;
 import org.eaxy.Xml.CommentElement;
@@ -12,67 +11,119 @@ import org.eaxy.Xml.TextElement;
 public class WriterXmlVisitor implements XmlVisitor {
 
     protected final Writer writer;
-    protected final Stack<Collection<Namespace>> printedNamespacesStack = new Stack<>();
+    private final XmlOutput output;
+    private final NamespaceScope namespaceScope;
 
     public WriterXmlVisitor(Writer writer) {
-        this.writer = writer;
+        this(new WriterOutput(writer));
+    }
+
+    WriterXmlVisitor(XmlOutput output) {
+        this(output, new NamespaceScope());
+    }
+
+    /** Writes elements inside others, where the scope has the namespaces of the ancestors */
+    WriterXmlVisitor(XmlOutput output, NamespaceScope namespaceScope) {
+        this.writer = output.asWriter();
+        this.output = output;
+        this.namespaceScope = namespaceScope;
     }
 
     @Override
     public void visitDocument(Document document) throws IOException {
-        document.writeHeader(writer);
+        document.writeHeader(output);
         document.getRootElement().visit(this);
     }
 
     @Override
     public void visitCdata(CDataElement cDataElement) throws IOException {
-        writer.write(cDataElement.toString());
+        output.write("<![CDATA[");
+        output.write(cDataElement.text().toString());
+        output.write("]]>");
     }
 
     @Override
     public void visitComment(CommentElement comment) throws IOException {
-        writer.write(comment.toString());
+        output.write("<!--");
+        output.write(comment.text());
+        output.write("-->");
     }
 
     @Override
     public void visitText(TextElement textElement) throws IOException {
-        writer.write(textElement.toString());
+        output.writeText(textElement.text());
     }
 
     @Override
     public void visitElement(Element element) throws IOException {
-        if (element.children().isEmpty()) {
-            writer.write("<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + " />");
+        writeStartTag(element);
+        if (element.childCount() == 0) {
+            writeEmptyTagEnd();
         } else {
-            writer.write("<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">");
-            printedNamespacesStack.push(element.getNamespaces());
-            for (Node child : element.children()) {
-                child.visit(this);
+            output.write('>');
+            for (int i = 0; i < element.childCount(); i++) {
+                element.child(i).visit(this);
             }
-            printedNamespacesStack.pop();
-            writer.write("</" + element.printTag() + ">");
+            writeEndTag(element);
         }
     }
 
-    protected String printNamespaces(Collection<Namespace> namespaces) {
-        StringBuilder result = new StringBuilder();
+    /**
+     * Writes the start tag up to, but not including, the closing
+     * <code>&gt;</code> or <code>/&gt;</code>. Declares the namespaces of
+     * the element that aren't already in scope. The element must be ended
+     * with {@link #writeEndTag(Element)} or {@link #writeEmptyTagEnd()}.
+     */
+    protected void writeStartTag(Element element) throws IOException {
+        output.write('<');
+        output.writeName(element.getName());
+        namespaceScope.enter();
+        for (int i = 0; i < element.namespaceCount(); i++) {
+            writeNamespace(element.namespace(i));
+        }
+        writeAttributes(element);
+    }
+
+    /** Like {@link #writeStartTag(Element)}, but with other namespaces than those of the element */
+    protected void writeStartTag(Element element, Collection<Namespace> namespaces) throws IOException {
+        output.write('<');
+        output.writeName(element.getName());
+        namespaceScope.enter();
         for (Namespace namespace : namespaces) {
-            if (!namespace.isNamespace()) throw new IllegalStateException("Can't print " + namespace.toString());
-            if (isNamespaceAlreadyPrinted(namespace)) continue;
-            result.append(" ").append(namespace.print());
+            writeNamespace(namespace);
+        }
+        writeAttributes(element);
+    }
+
+    private void writeNamespace(Namespace namespace) throws IOException {
+        if (!namespace.isNamespace()) throw new IllegalStateException("Can't print " + namespace.toString());
+        if (namespaceScope.declare(namespace)) {
+            output.writeNamespace(namespace);
         }
-        return result.toString();
     }
 
-    private boolean isNamespaceAlreadyPrinted(Namespace namespace) {
-        for (Collection<Namespace> linkedList : printedNamespacesStack) {
-        	for (Namespace includedNs : linkedList) {
-				if (Objects.equals(includedNs.getPrefix(), namespace.getPrefix()) && Objects.equals(includedNs.getUri(), namespace.getUri())) {
-					return true;
-				}
-			}
+    private void writeAttributes(Element element) throws IOException {
+        for (int i = 0; i < element.attributeCount(); i++) {
+            output.writeAttribute(element.attributeName(i), element.attributeValue(i));
         }
-        return false;
+    }
+
+    /** Ends a start tag as an empty element */
+    protected void writeEmptyTagEnd() throws IOException {
+        output.write(" />");
+        namespaceScope.exit();
+    }
+
+    protected void writeEndTag(Element element) throws IOException {
+        output.write("</");
+        output.writeName(element.getName());
+        output.write('>');
+        namespaceScope.exit();
+    }
+
+    /** Writes the text with <code>&amp;</code>, <code>&lt;</code> and <code>&gt;</code> escaped */
+    protected void writeText(String text) throws IOException {
+        output.writeText(text);
     }
 
 }
@@ -6,7 +6,9 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
@@ -102,9 +104,7 @@ public class Xml {
 
         @Override
         public String toString() {
-            return text().replaceAll("&", "&amp;")
-                    .replaceAll("<", "&lt;")
-                    .replaceAll(">", "&gt;");
+            return XmlOutput.escape(text(), false);
         }
     }
 
@@ -154,29 +154,67 @@ public class Xml {
     }
 
     public static Document xml(CharSequence xml) {
+        return xml(xml, ParserSettings.DEFAULT);
+    }
+
+    public static Document xml(CharSequence xml, ParserSettings settings) {
+        if (settings.isNativeParser()) {
+            return Utf8Reader.read(ByteBuffer.wrap(xml.toString().getBytes(UTF_8)), null, settings);
+        }
         try {
-            return read(new StringReader(xml.toString()));
+            return read(new StringReader(xml.toString()), settings);
         } catch (IOException e) {
             throw new CanNeverHappenException("StringReader never throws IOException", e);
         }
     }
 
     public static Document read(File file) throws IOException {
-        return read(file.toURI().toURL());
+        return read(file, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(File file, ParserSettings settings) throws IOException {
+        if (settings.isNativeParser()) {
+            return read(file.toPath(), settings);
+        }
+        return read(file.toURI().toURL(), settings);
+    }
+
+    public static Document read(Path path) throws IOException {
+        return read(path, ParserSettings.DEFAULT);
+    }
+
+    /**
+     * Memory maps the file and parses it with the built-in UTF-8 parser,
+     * regardless of {@link ParserSettings#isNativeParser()}.
+     */
+    public static Document read(Path path, ParserSettings settings) throws IOException {
+        return Utf8Reader.read(path, settings);
     }
 
     public static Document read(URL url) throws IOException {
+        return read(url, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(URL url, ParserSettings settings) throws IOException {
         try (InputStream inputStream = url.openStream()) {
             if (inputStream == null) {
                 throw new IllegalArgumentException("Can't load " + url);
             } else if (url.getFile().endsWith(".gz")) {
-                return StaxReader.read(new GZIPInputStream(inputStream), url);
+                return read(new GZIPInputStream(inputStream), url, settings);
             } else {
-                return StaxReader.read(inputStream, url);
+                return read(inputStream, url, settings);
             }
         }
     }
 
+    private static Document read(InputStream inputStream, URL url, ParserSettings settings) throws IOException {
+        if (settings.isNativeParser()) {
+            return Utf8Reader.read(inputStream, url, settings);
+        } else {
+            return StaxReader.read(inputStream, url, settings);
+        }
+    }
+
     public static Document readResource(String name) throws IOException {
         URL url = Xml.class.getClassLoader().getResource(name);
         if (url == null) {
@@ -186,7 +224,11 @@ public class Xml {
     }
 
     public static Document read(Reader reader) throws IOException {
-        return StaxReader.read(reader);
+        return read(reader, ParserSettings.DEFAULT);
+    }
+
+    public static Document read(Reader reader, ParserSettings settings) throws IOException {
+        return StaxReader.read(reader, settings);
     }
 
     public static Document fromDom(org.w3c.dom.Document document) {
@@ -197,6 +239,10 @@ public class Xml {
         return DomTransformer.toDom(document);
     }
 
+    public static org.w3c.dom.Document toDom(Document document, ParserSettings settings) {
+        return DomTransformer.toDom(document, settings);
+    }
+
     public static Document doc(Element el) {
         return new Document(el);
     }
@@ -218,4 +264,13 @@ public class Xml {
         return ElementFilters.create(path);
     }
 
+    /**
+     * Parses the path once into a query that can be reused with
+     * {@link ElementQuery#search(ElementSet)} or {@link ElementSet#find(Object...)}
+     * on any number of documents, from any thread.
+     */
+    public static ElementQuery compile(Object... path) {
+        return ElementFilters.create(path);
+    }
+
 }
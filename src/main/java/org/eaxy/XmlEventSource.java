@@ -0,0 +1,204 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The parser events {@link XmlIterator} consumes, so it can run on top of
+ * either JDK StAX or the built-in {@link Utf8Tokenizer}.
+ */
+interface XmlEventSource extends Closeable, XMLStreamConstants {
+
+    /** Advances to the next event and returns its type */
+    int next();
+
+    /** Creates the element for the current START_ELEMENT event */
+    Element createElement(ParserSettings settings);
+
+    /** Moves past the END_ELEMENT event of the innermost open element */
+    void skipElement();
+
+    String getText();
+
+    int getLineNumber();
+
+    int getColumnNumber();
+
+    int getCharacterOffset();
+
+    @Override
+    void close();
+
+    static XmlEventSource of(XMLStreamReader streamReader) {
+        return new StaxSource(streamReader, null);
+    }
+
+    /** XMLStreamReader doesn't close its input, so the source closes <code>input</code> itself */
+    static XmlEventSource of(XMLStreamReader streamReader, Closeable input) {
+        return new StaxSource(streamReader, input);
+    }
+
+    static XmlEventSource of(ByteInput input) throws IOException {
+        return new NativeSource(Utf8Reader.tokenizer(input), input);
+    }
+
+    final class StaxSource implements XmlEventSource {
+        private final XMLStreamReader streamReader;
+        private final Closeable input;
+        private SymbolTable symbols;
+
+        private StaxSource(XMLStreamReader streamReader, Closeable input) {
+            this.streamReader = streamReader;
+            this.input = input;
+        }
+
+        @Override
+        public int next() {
+            try {
+                if (!streamReader.hasNext()) {
+                    throw new IllegalStateException("Document not properly ended");
+                }
+                return streamReader.next();
+            } catch (XMLStreamException e) {
+                throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+            }
+        }
+
+        @Override
+        public Element createElement(ParserSettings settings) {
+            if (symbols == null) {
+                symbols = settings.newSymbolTable();
+            }
+            return StaxReader.readElement(streamReader, symbols, settings);
+        }
+
+        @Override
+        public void skipElement() {
+            int depth = 1;
+            while (depth > 0) {
+                int event = next();
+                if (event == START_ELEMENT) {
+                    depth++;
+                } else if (event == END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        @Override
+        public String getText() {
+            return streamReader.getText();
+        }
+
+        @Override
+        public int getLineNumber() {
+            return streamReader.getLocation().getLineNumber();
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return streamReader.getLocation().getColumnNumber();
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return streamReader.getLocation().getCharacterOffset();
+        }
+
+        @Override
+        public void close() {
+            try {
+                streamReader.close();
+            } catch (XMLStreamException e) {
+                throw new MalformedXMLException(e.getMessage(), getLineNumber());
+            } finally {
+                closeInput();
+            }
+        }
+
+        private void closeInput() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    final class NativeSource implements XmlEventSource {
+        private final Utf8Tokenizer tokenizer;
+        private final ByteInput input;
+        private boolean symbolsConfigured;
+
+        NativeSource(Utf8Tokenizer tokenizer, ByteInput input) {
+            this.tokenizer = tokenizer;
+            this.input = input;
+        }
+
+        @Override
+        public int next() {
+            try {
+                return input.next(tokenizer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Element createElement(ParserSettings settings) {
+            if (!symbolsConfigured) {
+                tokenizer.setSymbolTable(settings.newSymbolTable());
+                symbolsConfigured = true;
+            }
+            return tokenizer.createElement(settings.isLineNumbers());
+        }
+
+        @Override
+        public void skipElement() {
+            try {
+                input.skipElement(tokenizer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String getText() {
+            return tokenizer.getText();
+        }
+
+        @Override
+        public int getLineNumber() {
+            return tokenizer.getLineNumber();
+        }
+
+        /** Not tracked by the tokenizer */
+        @Override
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        /** Not tracked by the tokenizer */
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public void close() {
+            try {
+                input.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
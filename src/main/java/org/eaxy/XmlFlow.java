@@ -0,0 +1,159 @@
+package org.eaxy;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Publishes streamed elements to subscribers that ask for them. The
+ * interfaces have the same methods as <code>java.util.concurrent.Flow</code>
+ * and the Reactive Streams API, which aren't available on Java 8. Adapting
+ * them to either takes a lambda per method.
+ *
+ * <pre>
+ * Xml.filter("...", "order").publish(path, executor).subscribe(subscriber);
+ * </pre>
+ */
+public final class XmlFlow {
+
+    private XmlFlow() {
+    }
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * Each subscriber gets its own parser for the iterable. Parsing runs on
+     * the executor, and only while the subscriber has requested elements
+     * it hasn't received yet, apart from reading one element ahead to know
+     * when the document ends. Cancelling closes the input. Iterables that
+     * read a {@link java.io.Reader} can only be subscribed to once.
+     */
+    @Nonnull
+    public static Publisher<Element> publisher(@Nonnull XmlIterable iterable, @Nonnull Executor executor) {
+        return subscriber -> {
+            ElementSubscription subscription = new ElementSubscription(iterable, executor, subscriber);
+            subscriber.onSubscribe(subscription);
+            subscription.schedule();
+        };
+    }
+
+    private static class ElementSubscription implements Subscription, Runnable {
+
+        private final XmlIterable iterable;
+        private final Executor executor;
+        private final Subscriber<? super Element> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+        /** Counts the calls to {@link #schedule()} that {@link #run()} hasn't seen yet */
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        /** Only used by {@link #run()}, which never runs concurrently with itself */
+        private XmlIterator iterator;
+        private boolean done;
+
+        ElementSubscription(XmlIterable iterable, Executor executor, Subscriber<? super Element> subscriber) {
+            this.iterable = iterable;
+            this.executor = executor;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Must request a positive number of elements, not " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    emit();
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            try {
+                if (cancelled) {
+                    close();
+                    return;
+                }
+                if (invalidRequest != null) {
+                    close();
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                if (iterator == null) {
+                    iterator = iterable.iterator();
+                }
+                while (!cancelled) {
+                    if (!iterator.hasNext()) {
+                        close();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        return;
+                    }
+                    Element element = iterator.next();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(element);
+                }
+                close();
+            } catch (RuntimeException e) {
+                close();
+                subscriber.onError(e);
+            }
+        }
+
+        private void close() {
+            done = true;
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+    }
+
+}
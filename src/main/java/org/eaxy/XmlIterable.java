@@ -1,7 +1,100 @@
 package org.eaxy;
 
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
 public interface XmlIterable extends Iterable<Element> {
 
     @Override
     XmlIterator iterator();
+
+    /**
+     * Returns an iterable where each element only keeps the descendants
+     * that the queries (see {@link Xml#compile(Object...)}) find from it,
+     * together with the elements between. Other descendants and text
+     * outside of the kept elements are discarded while parsing. Calling
+     * it again adds to the projection. When the query can match elements
+     * inside a match, like <code>"...", "item"</code>, each match is read
+     * completely and each result is a projected copy, so matches inside it
+     * are returned as well.
+     *
+     * <pre>
+     * Xml.filter("...", "Legemiddelpakning").iterate(reader).project("Atc", "NavnFormStyrke")
+     * </pre>
+     *
+     * @throws UnsupportedOperationException if the iterable doesn't parse
+     *      the input itself, or a query can't be evaluated while streaming
+     */
+    default XmlIterable project(ElementQuery... paths) {
+        throw new UnsupportedOperationException("Projection is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns an iterable that only returns the elements where the first
+     * descendant that <code>relativePath</code> finds meets the predicate.
+     * The condition is checked while parsing. When the descendant fails
+     * the predicate, the rest of the element is skipped without building
+     * it. Elements without such a descendant are not returned. Each call
+     * adds a condition that must also hold. When the query can match
+     * elements inside a match, like <code>"...", "item"</code>, each match
+     * is read completely and checked in memory instead, so matches inside a
+     * rejected element are still returned.
+     *
+     * <pre>
+     * Xml.filter("...", "Legemiddelpakning").iterate(reader)
+     *     .where(Xml.compile("Atc"), atc -&gt; atc.attr("V").equals("N06BA04"))
+     * </pre>
+     *
+     * @throws UnsupportedOperationException if the iterable doesn't parse
+     *      the input itself, or the query can't be evaluated while streaming
+     */
+    default XmlIterable where(ElementQuery relativePath, Predicate<? super Element> predicate) {
+        throw new UnsupportedOperationException("Conditions are not supported by " + getClass().getName());
+    }
+
+    /** Filters on the first child that matches the filter, like <code>where(Xml.compile(filter), predicate)</code> */
+    default XmlIterable where(String filter, Predicate<? super Element> predicate) {
+        return where(Xml.compile(filter), predicate);
+    }
+
+    /** Projects on the children that match each filter, like <code>project(Xml.compile(filter), ...)</code> */
+    default XmlIterable project(String... filters) {
+        ElementQuery[] paths = new ElementQuery[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            paths[i] = Xml.compile(filters[i]);
+        }
+        return project(paths);
+    }
+
+    /**
+     * Parses on the executor as subscribers request elements.
+     * See {@link XmlFlow#publisher(XmlIterable, Executor)}.
+     */
+    default XmlFlow.Publisher<Element> publish(Executor executor) {
+        return XmlFlow.publisher(this, executor);
+    }
+
+    @Override
+    default Spliterator<Element> spliterator() {
+        return new XmlSpliterator(iterator());
+    }
+
+    /**
+     * The input is opened when the stream's terminal operation starts.
+     * Closing the stream closes the parser and its input.
+     */
+    default Stream<Element> stream() {
+        return XmlSpliterator.stream(this, false);
+    }
+
+    /**
+     * Parsing stays on one thread, while downstream operations on the
+     * elements run in parallel. Closing the stream closes the parser
+     * and its input.
+     */
+    default Stream<Element> parallelStream() {
+        return XmlSpliterator.stream(this, true);
+    }
 }
@@ -4,61 +4,100 @@ import static org.eaxy.Xml.cdata;
 import static org.eaxy.Xml.comment;
 import static org.eaxy.Xml.text;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Stack;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Nonnull;
-import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
-import com.sun.org.apache.xerces.internal.impl.Constants;
-
-@SuppressWarnings("restriction")
-public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
-
-    private final Stack<Element> elementStack = new Stack<Element>();
-    private XMLStreamReader streamReader;
+/**
+ * Iterates over the elements matching a query while parsing. Close the
+ * iterator if you stop before the end of the document to release the
+ * underlying parser and input.
+ *
+ * <p>The elements are the same as {@link ElementQuery#search(ElementSet)}
+ * finds from the root element. An element is returned when it is complete,
+ * and matches inside it, as for <code>"...", "item"</code> on nested items,
+ * are returned after it. Each element is returned once, though:
+ * <code>search</code> returns an element once for each way the query
+ * reaches it, so with <code>"...", "a", "...", "b"</code> a <code>b</code>
+ * inside two nested <code>a</code> elements is found twice, but streamed
+ * once.</p>
+ *
+ * <p>When no query can match inside an element, its content is skipped
+ * without creating elements. With the built-in tokenizer, the skipped
+ * content is only checked for balanced tags.</p>
+ */
+public class XmlIterator implements XMLStreamConstants, Iterator<Element>, Closeable {
+
+    private final XmlEventSource source;
 
     public int currentLineNumber() {
-        return streamReader.getLocation().getLineNumber();
+        return source.getLineNumber();
     }
 
     public int currentColumnNumber() {
-        return streamReader.getLocation().getColumnNumber();
+        return source.getColumnNumber();
     }
 
     public int currentCharacterOffset() {
-        return streamReader.getLocation().getCharacterOffset();
+        return source.getCharacterOffset();
     }
 
-    private ElementQuery query;
+    private final StreamingMatcher matcher;
+
+    private final ParserSettings settings;
+
+    private final Deque<QuerySet.Match> pending = new ArrayDeque<>();
 
-    private Element next;
+    /** What to keep of each match and which matches to return, or null for everything */
+    private final RecordFilter recordFilter;
+
+    /** The queries that accepted an element, reused while reading records */
+    private final BitSet accepted = new BitSet();
+    /** The conditions that are decided by the current element */
+    private final BitSet deciding = new BitSet();
+    /** The conditions that are decided for the current record */
+    private final BitSet decided = new BitSet();
+
+    private boolean closed;
 
     public XmlIterator(XMLStreamReader streamReader, ElementQuery query) {
-        this.streamReader = streamReader;
-        this.query = query;
+        this(streamReader, query, ParserSettings.DEFAULT);
+    }
 
-        try {
-            this.next = nextMatchingElement();
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
-        }
+    public XmlIterator(XMLStreamReader streamReader, ElementQuery query, ParserSettings settings) {
+        this(XmlEventSource.of(streamReader), query, settings);
     }
 
-    private static XMLInputFactory getInputFactory() {
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
-        inputFactory.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, Boolean.TRUE);
-        return inputFactory;
+    XmlIterator(XmlEventSource source, ElementQuery query, ParserSettings settings) {
+        this(source, StreamingMatcher.of(query), settings, null);
+    }
+
+    XmlIterator(XmlEventSource source, StreamingMatcher matcher, ParserSettings settings, RecordFilter recordFilter) {
+        this.source = source;
+        this.matcher = matcher;
+        this.settings = settings;
+        this.recordFilter = recordFilter;
+        readNextMatches();
     }
 
     public static Iterable<Element> read(ElementQuery query, Reader reader) throws IOException {
@@ -66,52 +105,81 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
         return query.search(new ElementSet(doc.getRootElement()));
     }
 
-    private Element nextMatchingElement() throws XMLStreamException {
-        while (streamReader.hasNext()) {
-            streamReader.next();
+    private void readNextMatches() {
+        try {
+            readMatches();
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (pending.isEmpty()) {
+            close();
+        }
+    }
 
-            switch (streamReader.getEventType()) {
+    private void readMatches() {
+        while (true) {
+            int event = source.next();
+            switch (event) {
             case START_ELEMENT:
-                Element element = readElement();
-                elementStack.push(element);
-
-                if (query.matches(elementStack, 1)) {
-                    readSubtree(element);
-                    elementStack.pop();
-                    return element;
+                Element element = source.createElement(settings);
+                if (matcher.start(element)) {
+                    if (recordFilter == null) {
+                        readSubtree(element);
+                        matcher.forEachMatch(element, (match, index) -> pending.add(new QuerySet.Match(index, match)));
+                        return;
+                    }
+                    if (matcher.canMatchInside()) {
+                        // Matches inside may be accepted when this one isn't, or be outside its projection,
+                        // so each is checked and projected on its whole subtree
+                        readSubtree(element);
+                        matcher.forEachMatch(element, (match, index) -> {
+                            if (recordFilter.accepts(match)) {
+                                pending.add(new QuerySet.Match(index, recordFilter.project(match)));
+                            }
+                        });
+                    } else if (readRecord(element)) {
+                        matcher.forEachMatch(element, (match, index) -> pending.add(new QuerySet.Match(index, match)));
+                    }
+                    if (!pending.isEmpty()) {
+                        return;
+                    }
+                    break;
+                }
+                if (matcher.isSkipping()) {
+                    source.skipElement();
+                    matcher.end();
                 }
-
                 break;
             case END_ELEMENT:
-                elementStack.pop();
+                matcher.end();
                 break;
             case CDATA:
             case SPACE:
             case CHARACTERS:
             case COMMENT:
+            case PROCESSING_INSTRUCTION:
                 break;
             case START_DOCUMENT:
                 break;
             case END_DOCUMENT:
-                return null;
+                return;
             case DTD:
                 break;
             default:
-                throw new IllegalStateException("Unknown event type " + streamReader.getEventType());
+                throw new IllegalStateException("Unknown event type " + event);
             }
         }
-        throw new IllegalStateException("Document not properly ended");
     }
 
-    private void readSubtree(Element rootElement) throws XMLStreamException {
+    private void readSubtree(Element rootElement) {
         Stack<Element> elementStack = new Stack<>();
         elementStack.push(rootElement);
-        while (streamReader.hasNext()) {
-            streamReader.next();
-
-            switch (streamReader.getEventType()) {
+        while (true) {
+            int event = source.next();
+            switch (event) {
             case START_ELEMENT:
-                Element element = readElement();
+                Element element = source.createElement(settings);
                 elementStack.peek().add(element);
                 elementStack.push(element);
                 break;
@@ -122,58 +190,298 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
                 }
                 break;
             case CDATA:
-                elementStack.peek().add(cdata(streamReader.getText()));
+                elementStack.peek().add(cdata(source.getText()));
                 break;
             case SPACE:
             case CHARACTERS:
-                elementStack.peek().add(text(streamReader.getText()));
+                String text = source.getText();
+                if (!settings.isIgnorable(text)) {
+                    elementStack.peek().add(text(text));
+                }
                 break;
             case COMMENT:
-                elementStack.peek().add(comment(streamReader.getText()));
+                elementStack.peek().add(comment(source.getText()));
                 break;
             case START_DOCUMENT:
-            case END_DOCUMENT:
             case DTD:
+            case PROCESSING_INSTRUCTION:
                 break;
+            case END_DOCUMENT:
+                throw new IllegalStateException("Didn't find closing tag for " + rootElement);
             default:
-                throw new IllegalStateException("Unknown event type " + streamReader.getEventType());
+                throw new IllegalStateException("Unknown event type " + event);
             }
         }
-        throw new IllegalStateException("Didn't find closing tag for " + rootElement);
     }
 
-    private Element readElement() {
-        QName name = streamReader.getName();
-        Element element = new Element(toName(name));
+    /** An open element inside a match, while {@link #readRecord(Element)} reads it */
+    private static final class OpenElement {
+        final Element element;
+        /** Whether the element is part of the result */
+        final boolean kept;
+        /** Whether everything inside the element is kept */
+        final boolean complete;
+        final int[] projectionStates;
+        final int[] conditionStates;
+
+        OpenElement(Element element, boolean kept, boolean complete, int[] projectionStates, int[] conditionStates) {
+            this.element = element;
+            this.kept = kept;
+            this.complete = complete;
+            this.projectionStates = projectionStates;
+            this.conditionStates = conditionStates;
+        }
+    }
+
+    private static final int[] NO_STATES = new int[0];
+
+    /**
+     * Reads the rest of <code>rootElement</code>, but only keeps the
+     * descendants the projection matches, with the elements between.
+     * Each condition is decided by the first descendant it finds. If a
+     * condition fails, the rest of the element is skipped. Returns false
+     * if the element doesn't meet all conditions.
+     */
+    private boolean readRecord(Element rootElement) {
+        QueryAutomaton projection = recordFilter.projection;
+        QueryAutomaton conditions = recordFilter.conditions;
+        int[] projectionCounts = projection != null ? projection.newCounts() : null;
+        int[] conditionCounts = conditions != null ? conditions.newCounts() : null;
+        accepted.clear();
+        decided.clear();
+        Deque<OpenElement> elementStack = new ArrayDeque<>();
+        elementStack.push(new OpenElement(rootElement, true, projection == null,
+                projection != null ? projection.initialStates() : null,
+                conditions != null ? conditions.initialStates() : NO_STATES));
+        while (true) {
+            OpenElement parent = elementStack.peek();
+            int event = source.next();
+            switch (event) {
+            case START_ELEMENT:
+                Element element = source.createElement(settings);
+                int[] conditionStates = NO_STATES;
+                if (parent.conditionStates.length > 0 && decided.cardinality() < recordFilter.conditionCount()) {
+                    conditionStates = conditions.next(parent.conditionStates, element, accepted, conditionCounts);
+                    accepted.andNot(decided);
+                }
+                deciding.clear();
+                deciding.or(accepted);
+                accepted.clear();
+
+                boolean complete = parent.complete;
+                int[] projectionStates = null;
+                if (!complete) {
+                    projectionStates = projection.next(parent.projectionStates, element, accepted, projectionCounts);
+                    complete = !accepted.isEmpty();
+                    accepted.clear();
+                }
+                boolean kept = parent.kept && (complete || projectionStates.length > 0);
 
-        for (int i = 0; i < streamReader.getNamespaceCount(); i++) {
-            element.namespace(new Namespace(streamReader.getNamespaceURI(i), streamReader.getNamespacePrefix(i)));
+                if (!deciding.isEmpty()) {
+                    readSubtree(element);
+                    if (!decide(element) || !decideDescendants(element, conditionStates, conditionCounts)) {
+                        for (int level = 0; level < elementStack.size(); level++) {
+                            source.skipElement();
+                        }
+                        return false;
+                    }
+                    if (kept) {
+                        parent.element.add(element);
+                    }
+                } else if (kept || conditionStates.length > 0) {
+                    if (kept) {
+                        parent.element.add(element);
+                    }
+                    elementStack.push(new OpenElement(element, kept, complete, projectionStates, conditionStates));
+                } else {
+                    source.skipElement();
+                }
+                break;
+            case END_ELEMENT:
+                OpenElement closed = elementStack.pop();
+                if (elementStack.isEmpty()) {
+                    return decided.cardinality() == recordFilter.conditionCount();
+                }
+                if (closed.kept && !closed.complete && closed.element.childCount() == 0) {
+                    // Nothing below it was kept, so it isn't an ancestor of a projected element
+                    Element parentElement = elementStack.peek().element;
+                    parentElement.children().remove(parentElement.childCount() - 1);
+                }
+                break;
+            case CDATA:
+                if (parent.kept && parent.complete) {
+                    parent.element.add(cdata(source.getText()));
+                }
+                break;
+            case SPACE:
+            case CHARACTERS:
+                if (parent.kept && parent.complete) {
+                    String text = source.getText();
+                    if (!settings.isIgnorable(text)) {
+                        parent.element.add(text(text));
+                    }
+                }
+                break;
+            case COMMENT:
+                if (parent.kept && parent.complete) {
+                    parent.element.add(comment(source.getText()));
+                }
+                break;
+            case START_DOCUMENT:
+            case DTD:
+            case PROCESSING_INSTRUCTION:
+                break;
+            case END_DOCUMENT:
+                throw new IllegalStateException("Didn't find closing tag for " + rootElement);
+            default:
+                throw new IllegalStateException("Unknown event type " + event);
+            }
         }
+    }
 
-        for (int i = 0; i < streamReader.getAttributeCount(); i++) {
-            element.attr(toName(streamReader.getAttributeName(i)), streamReader.getAttributeValue(i));
+    /** Tests the conditions that the element decides. Returns false if one of them fails */
+    private boolean decide(Element element) {
+        for (int i = deciding.nextSetBit(0); i >= 0; i = deciding.nextSetBit(i + 1)) {
+            decided.set(i);
+            if (!recordFilter.test(i, element)) {
+                return false;
+            }
         }
-        return element;
+        return true;
     }
 
-    static QualifiedName toName(QName name) {
-        return new QualifiedName(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
+    /**
+     * Continues the conditions into an element that was read as a whole,
+     * since it may contain the elements of other conditions. Returns false
+     * if one of them fails.
+     */
+    private boolean decideDescendants(Element element, int[] conditionStates, int[] conditionCounts) {
+        Deque<Element> elements = new ArrayDeque<>();
+        Deque<int[]> elementStates = new ArrayDeque<>();
+        StreamingMatcher.addChildren(element, conditionStates, elements, elementStates);
+        while (!elements.isEmpty() && decided.cardinality() < recordFilter.conditionCount()) {
+            Element descendant = elements.pop();
+            int[] childStates = recordFilter.conditions.next(elementStates.pop(), descendant, accepted, conditionCounts);
+            accepted.andNot(decided);
+            deciding.clear();
+            deciding.or(accepted);
+            accepted.clear();
+            if (!decide(descendant)) {
+                return false;
+            }
+            StreamingMatcher.addChildren(descendant, childStates, elements, elementStates);
+        }
+        return true;
     }
 
     @SuppressWarnings("resource")
     @Nonnull
     public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull URL url) {
-        final InputStream inputStream = openStream(url);
-        return new XmlIterable() {
-            @Override
-            public XmlIterator iterator() {
-                try {
-                    return new XmlIterator(getInputFactory().createXMLStreamReader(inputStream), query);
-                } catch (XMLStreamException e) {
-                    throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
-                }
+        return iterate(query, url, ParserSettings.DEFAULT);
+    }
+
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull URL url, @Nonnull final ParserSettings settings) {
+        return new QueryIterable(() -> open(url, settings), query, settings);
+    }
+
+    /**
+     * Memory maps the file (or decompresses it, if it ends with .gz) and
+     * iterates over it with the built-in {@link Utf8Tokenizer}, regardless
+     * of {@link ParserSettings#isNativeParser()}.
+     */
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Path path, @Nonnull final ParserSettings settings) {
+        return new QueryIterable(() -> open(path), query, settings);
+    }
+
+    /** Creates a new iterator over the input each time, with an optional projection and conditions */
+    private static class QueryIterable implements XmlIterable {
+        private final Supplier<XmlEventSource> source;
+        private final ElementQuery query;
+        private final ParserSettings settings;
+        private final List<ElementQuery> projection;
+        private final List<ElementQuery> conditions;
+        private final List<Predicate<? super Element>> predicates;
+        private final RecordFilter recordFilter;
+
+        QueryIterable(Supplier<XmlEventSource> source, ElementQuery query, ParserSettings settings) {
+            this(source, query, settings, new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+
+        private QueryIterable(Supplier<XmlEventSource> source, ElementQuery query, ParserSettings settings,
+                List<ElementQuery> projection, List<ElementQuery> conditions, List<Predicate<? super Element>> predicates) {
+            this.source = source;
+            this.query = query;
+            this.settings = settings;
+            this.projection = projection;
+            this.conditions = conditions;
+            this.predicates = predicates;
+            this.recordFilter = projection.isEmpty() && conditions.isEmpty() ? null : new RecordFilter(projection, conditions, predicates);
+        }
+
+        @Override
+        public XmlIterator iterator() {
+            return new XmlIterator(source.get(), StreamingMatcher.of(query), settings, recordFilter);
+        }
+
+        @Override
+        public XmlIterable project(ElementQuery... paths) {
+            List<ElementQuery> projection = new ArrayList<>(this.projection);
+            projection.addAll(Arrays.asList(paths));
+            return new QueryIterable(source, query, settings, projection, conditions, predicates);
+        }
+
+        @Override
+        public XmlIterable where(ElementQuery relativePath, Predicate<? super Element> predicate) {
+            List<ElementQuery> conditions = new ArrayList<>(this.conditions);
+            List<Predicate<? super Element>> predicates = new ArrayList<>(this.predicates);
+            conditions.add(relativePath);
+            predicates.add(predicate);
+            return new QueryIterable(source, query, settings, projection, conditions, predicates);
+        }
+    }
+
+    @SuppressWarnings("resource")
+    static XmlEventSource open(URL url, ParserSettings settings) {
+        InputStream inputStream = openStream(url);
+        try {
+            if (settings.isNativeParser()) {
+                return XmlEventSource.of(ByteInput.of(inputStream));
+            } else {
+                return XmlEventSource.of(settings.getInputFactory().createXMLStreamReader(inputStream), inputStream);
             }
-        };
+        } catch (IOException e) {
+            closeQuietly(inputStream);
+            throw new RuntimeException("Can't read " + url, e);
+        } catch (XMLStreamException e) {
+            closeQuietly(inputStream);
+            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+        }
+    }
+
+    static XmlEventSource open(Path path) {
+        try {
+            return XmlEventSource.of(ByteInput.open(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open " + path, e);
+        }
+    }
+
+    static XmlEventSource open(Reader reader, ParserSettings settings) {
+        try {
+            return XmlEventSource.of(settings.getInputFactory().createXMLStreamReader(reader));
+        } catch (XMLStreamException e) {
+            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // Already reporting the original problem
+        }
     }
 
     private static InputStream openStream(URL url) {
@@ -190,37 +498,43 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
 
     @Nonnull
     public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Reader reader) {
-        return new XmlIterable() {
-            @Override
-            public XmlIterator iterator() {
-                try {
-                    return new XmlIterator(getInputFactory().createXMLStreamReader(reader), query);
-                } catch (XMLStreamException e) {
-                    throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
-                }
-            }
-        };
+        return iterate(query, reader, ParserSettings.DEFAULT);
     }
 
-
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Reader reader, @Nonnull final ParserSettings settings) {
+        return new QueryIterable(() -> open(reader, settings), query, settings);
+    }
 
     @Override
     public boolean hasNext() {
-        return next != null;
+        return !pending.isEmpty();
     }
 
     @Override
     public Element next() {
-        Element current = next;
-        try {
-            next = nextMatchingElement();
-            if (next == null) {
-                streamReader.close();
-            }
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+        return nextMatch().getElement();
+    }
+
+    /** Returns the next element together with the index of the query it matched */
+    QuerySet.Match nextMatch() {
+        if (pending.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        QuerySet.Match current = pending.removeFirst();
+        if (pending.isEmpty() && !closed) {
+            readNextMatches();
         }
         return current;
     }
 
+    /** Closes the parser and any input the iterator opened itself */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        pending.clear();
+        source.close();
+    }
+
 }
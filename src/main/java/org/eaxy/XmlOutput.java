@@ -0,0 +1,134 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where {@link WriterXmlVisitor} writes the document. Names, attribute
+ * values and text are written straight from the strings of the nodes.
+ * Escaping scans the characters and writes the runs that don't need
+ * escaping in one call, so nothing is allocated per node.
+ */
+abstract class XmlOutput {
+
+    abstract void write(char c) throws IOException;
+
+    abstract void write(String s, int offset, int length) throws IOException;
+
+    void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    /** Writes the prefix and local name, without building {@link QualifiedName#print()} */
+    void writeName(QualifiedName name) throws IOException {
+        String prefix = name.getNamespace().getPrefix();
+        if (prefix != null) {
+            write(prefix);
+            write(':');
+        }
+        write(name.getName());
+    }
+
+    /** Writes <code>xmlns:prefix="uri"</code> */
+    void writeNamespace(Namespace namespace) throws IOException {
+        write(" xmlns");
+        if (namespace.getPrefix() != null) {
+            write(':');
+            write(namespace.getPrefix());
+        }
+        write("=\"");
+        write(namespace.getUri());
+        write('"');
+    }
+
+    void writeAttribute(QualifiedName name, String value) throws IOException {
+        write(' ');
+        writeName(name);
+        if (value != null) {
+            write("=\"");
+            writeEscaped(value, true);
+            write('"');
+        }
+    }
+
+    void writeText(String text) throws IOException {
+        writeEscaped(text, false);
+    }
+
+    void writeEscaped(String s, boolean attribute) throws IOException {
+        int start = 0;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            String replacement = escape(s.charAt(i), attribute);
+            if (replacement != null) {
+                write(s, start, i - start);
+                write(replacement);
+                start = i + 1;
+            }
+        }
+        write(s, start, s.length() - start);
+    }
+
+    /** Writes anything that is buffered to the destination */
+    void flush() throws IOException {
+    }
+
+    /** For code that writes to {@link WriterXmlVisitor#writer} */
+    Writer asWriter() {
+        return new Writer() {
+            @Override
+            public void write(int c) throws IOException {
+                XmlOutput.this.write((char) c);
+            }
+
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                for (int i = offset; i < offset + length; i++) {
+                    XmlOutput.this.write(chars[i]);
+                }
+            }
+
+            @Override
+            public void write(String s, int offset, int length) throws IOException {
+                XmlOutput.this.write(s, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                XmlOutput.this.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    static String escape(char c, boolean attribute) {
+        switch (c) {
+        case '&': return "&amp;";
+        case '<': return "&lt;";
+        case '>': return "&gt;";
+        case '"': return attribute ? "&quot;" : null;
+        default: return null;
+        }
+    }
+
+    /** Returns the string with markup characters escaped, or the string itself if there are none */
+    static String escape(String s, boolean attribute) {
+        StringBuilder result = null;
+        int start = 0;
+        for (int i = 0, length = s.length(); i < length; i++) {
+            String replacement = escape(s.charAt(i), attribute);
+            if (replacement != null) {
+                if (result == null) {
+                    result = new StringBuilder(s.length() + 16);
+                }
+                result.append(s, start, i).append(replacement);
+                start = i + 1;
+            }
+        }
+        return result == null ? s : result.append(s, start, s.length()).toString();
+    }
+
+}
@@ -0,0 +1,198 @@
+package org.eaxy;
+
+import static org.eaxy.Xml.cdata;
+import static org.eaxy.Xml.comment;
+import static org.eaxy.Xml.text;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Parses XML that arrives in chunks, for example from a non-blocking
+ * channel. {@link #feed(ByteBuffer)} consumes whatever is complete in the
+ * input so far and returns without waiting for more. Complete results are
+ * passed to the handler on the calling thread.
+ *
+ * <pre>
+ * XmlPushParser parser = XmlPushParser.elements(Xml.compile("...", "order"), orders::add);
+ * // For each read from the channel
+ * parser.feed(buffer);
+ * // When the channel reaches end of stream
+ * parser.endOfInput();
+ * </pre>
+ *
+ * <p>The input must be UTF-8. A parser reads one document, is not thread
+ * safe, and can't be used after it has thrown an exception.</p>
+ */
+public class XmlPushParser implements XMLStreamConstants {
+
+    private final Utf8Tokenizer tokenizer = new Utf8Tokenizer();
+    private final ParserSettings settings;
+
+    /** Builds the whole document, or null when returning elements */
+    private final Utf8Reader documentReader;
+    private final Consumer<Document> documentHandler;
+
+    private final StreamingMatcher matcher;
+    private final Consumer<Element> elementHandler;
+    /** The match being built, from the match to the innermost open element */
+    private final Deque<Element> elementStack = new ArrayDeque<>();
+    /** Skipping an element where the query can't match */
+    private boolean skipping;
+
+    private boolean done;
+
+    private XmlPushParser(ParserSettings settings, Consumer<Document> documentHandler, ElementQuery query, Consumer<Element> elementHandler) {
+        this.settings = settings;
+        tokenizer.setSymbolTable(settings.newSymbolTable());
+        this.documentHandler = documentHandler;
+        this.documentReader = documentHandler != null ? Utf8Reader.pushReader(tokenizer, settings) : null;
+        this.elementHandler = elementHandler;
+        this.matcher = query != null ? StreamingMatcher.of(query) : null;
+    }
+
+    /** Passes the document to the handler when it is complete */
+    @Nonnull
+    public static XmlPushParser document(@Nonnull Consumer<Document> handler) {
+        return document(ParserSettings.DEFAULT, handler);
+    }
+
+    @Nonnull
+    public static XmlPushParser document(@Nonnull ParserSettings settings, @Nonnull Consumer<Document> handler) {
+        return new XmlPushParser(settings, handler, null, null);
+    }
+
+    /**
+     * Passes each element that matches the query to the handler as soon
+     * as it is complete, like {@link XmlIterator}. Nothing else is kept.
+     */
+    @Nonnull
+    public static XmlPushParser elements(@Nonnull ElementQuery query, @Nonnull Consumer<Element> handler) {
+        return elements(query, ParserSettings.DEFAULT, handler);
+    }
+
+    @Nonnull
+    public static XmlPushParser elements(@Nonnull ElementQuery query, @Nonnull ParserSettings settings, @Nonnull Consumer<Element> handler) {
+        return new XmlPushParser(settings, null, query, handler);
+    }
+
+    /**
+     * Parses as much as possible with the remaining bytes of the chunk. The
+     * bytes are copied, so the caller can reuse the buffer when this returns.
+     */
+    public void feed(@Nonnull ByteBuffer chunk) {
+        if (done) throw new IllegalStateException("Document is already complete");
+        tokenizer.feed(chunk);
+        parseAvailable();
+    }
+
+    /**
+     * Tells the parser there is no more input. Throws
+     * {@link MalformedXMLException} if the document is incomplete.
+     */
+    public void endOfInput() {
+        if (tokenizer.isEndOfInput()) return;
+        tokenizer.endOfInput();
+        if (!done) {
+            parseAvailable();
+        }
+    }
+
+    /** Returns true when the end of the document has been parsed */
+    public boolean isDone() {
+        return done;
+    }
+
+    private void parseAvailable() {
+        if (documentReader != null) {
+            Document document = documentReader.parseAvailable();
+            checkEncoding();
+            if (document != null) {
+                done = true;
+                documentHandler.accept(document);
+            }
+        } else {
+            parseElements();
+        }
+    }
+
+    /** Other encodings would have to be transcoded, which needs the whole input */
+    private void checkEncoding() {
+        String encoding = tokenizer.isStarted() ? tokenizer.getEncoding() : null;
+        if (encoding != null && !Utf8Reader.isUtf8(encoding)) {
+            throw new MalformedXMLException("Only UTF-8 is supported, not " + encoding, 1);
+        }
+    }
+
+    private void parseElements() {
+        while (true) {
+            int event = skipping ? tokenizer.skipElement() : tokenizer.next();
+            if (event == Utf8Tokenizer.NEED_INPUT) {
+                return;
+            }
+            if (skipping) {
+                skipping = false;
+                matcher.end();
+                continue;
+            }
+            switch (event) {
+            case START_ELEMENT:
+                Element element = tokenizer.createElement(settings.isLineNumbers());
+                if (!elementStack.isEmpty()) {
+                    elementStack.peek().add(element);
+                    elementStack.push(element);
+                } else if (matcher.start(element)) {
+                    elementStack.push(element);
+                } else if (matcher.isSkipping()) {
+                    skipping = true;
+                }
+                break;
+            case END_ELEMENT:
+                if (elementStack.isEmpty()) {
+                    matcher.end();
+                } else {
+                    Element closed = elementStack.pop();
+                    if (elementStack.isEmpty()) {
+                        matcher.forEachMatch(closed, (match, index) -> elementHandler.accept(match));
+                    }
+                }
+                break;
+            case CDATA:
+                if (!elementStack.isEmpty()) {
+                    elementStack.peek().add(cdata(tokenizer.getText()));
+                }
+                break;
+            case CHARACTERS:
+                if (!elementStack.isEmpty()) {
+                    String text = tokenizer.getText();
+                    if (!settings.isIgnorable(text)) {
+                        elementStack.peek().add(text(text));
+                    }
+                }
+                break;
+            case COMMENT:
+                if (!elementStack.isEmpty()) {
+                    elementStack.peek().add(comment(tokenizer.getText()));
+                }
+                break;
+            case START_DOCUMENT:
+                checkEncoding();
+                break;
+            case DTD:
+            case PROCESSING_INSTRUCTION:
+                break;
+            case END_DOCUMENT:
+                done = true;
+                return;
+            default:
+                throw new IllegalStateException("Unknown event type " + event);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.eaxy;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator over an {@link XmlIterator}. The parser can only be advanced
+ * by one thread, so {@link #trySplit()} hands off batches of already parsed
+ * elements. Batches grow with each split, starting small because a single
+ * element may be a large subtree.
+ */
+final class XmlSpliterator implements Spliterator<Element> {
+
+    private static final int BATCH_UNIT = 16;
+    private static final int MAX_BATCH = 1 << 12;
+    private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+    private final XmlIterator iterator;
+    private int batchSize;
+
+    XmlSpliterator(XmlIterator iterator) {
+        this.iterator = iterator;
+    }
+
+    /**
+     * A stream that only starts parsing when its terminal operation starts,
+     * and closes the parser on close if it was started.
+     */
+    static Stream<Element> stream(XmlIterable iterable, boolean parallel) {
+        AtomicReference<XmlIterator> started = new AtomicReference<>();
+        Supplier<Spliterator<Element>> supplier = () -> {
+            XmlIterator iterator = iterable.iterator();
+            started.set(iterator);
+            return new XmlSpliterator(iterator);
+        };
+        return StreamSupport.stream(supplier, CHARACTERISTICS, parallel).onClose(() -> {
+            XmlIterator iterator = started.get();
+            if (iterator != null) {
+                iterator.close();
+            }
+        });
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Element> action) {
+        if (!iterator.hasNext()) return false;
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Element> action) {
+        while (iterator.hasNext()) {
+            action.accept(iterator.next());
+        }
+    }
+
+    @Override
+    public Spliterator<Element> trySplit() {
+        if (!iterator.hasNext()) return null;
+        batchSize = Math.min(batchSize + BATCH_UNIT, MAX_BATCH);
+        Element[] batch = new Element[batchSize];
+        int count = 0;
+        while (count < batch.length && iterator.hasNext()) {
+            batch[count++] = iterator.next();
+        }
+        return Spliterators.spliterator(batch, 0, count, CHARACTERISTICS);
+    }
+
+    /** The number of elements isn't known until the document has been parsed */
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+}
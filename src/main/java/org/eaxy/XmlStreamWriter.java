@@ -0,0 +1,278 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes XML as it is produced, without building a tree, so the memory
+ * used only depends on how deeply the elements are nested. Names,
+ * namespaces and escaping are handled like {@link WriterXmlVisitor}, and
+ * complete {@link Element} trees can be written at any point.
+ *
+ * <pre>
+ * try (XmlStreamWriter writer = XmlStreamWriter.open(output).indent("  ")) {
+ *     writer.declaration().start("orders").attr("date", date);
+ *     for (Order order : orders) {
+ *         writer.start("order").attr("id", order.getId()).text(order.getText()).end();
+ *     }
+ *     writer.element(Xml.el("summary", Xml.el("count", String.valueOf(orders.size()))));
+ *     writer.end();
+ * }
+ * </pre>
+ *
+ * <p>With indentation, the layout is the same as with
+ * {@link IntentedWriterXmlVisitor}, except that an element that starts
+ * with text and then has child elements doesn't get a line break after the
+ * start tag, since that would have to be written before the text.</p>
+ */
+public class XmlStreamWriter implements Closeable, Flushable {
+
+    private final XmlOutput output;
+    private final Closeable destination;
+    private final NamespaceScope namespaceScope = new NamespaceScope();
+
+    /** The indentation per level, or null to write without line breaks */
+    private String indentation;
+    private String[] indents = { "" };
+
+    private QualifiedName[] openElements = new QualifiedName[16];
+    private boolean[] hasChildElements = new boolean[16];
+    private int depth;
+    /** The start tag of the innermost element still takes attributes and namespaces */
+    private boolean startTagOpen;
+    private boolean closed;
+
+    private XmlStreamWriter(XmlOutput output, Closeable destination) {
+        this.output = output;
+        this.destination = destination;
+    }
+
+    /** Writes UTF-8 */
+    @Nonnull
+    public static XmlStreamWriter open(@Nonnull OutputStream output) {
+        return new XmlStreamWriter(Utf8Output.to(output), output);
+    }
+
+    /** Writes UTF-8 */
+    @Nonnull
+    public static XmlStreamWriter open(@Nonnull WritableByteChannel channel) {
+        return new XmlStreamWriter(Utf8Output.to(channel), channel);
+    }
+
+    @Nonnull
+    public static XmlStreamWriter open(@Nonnull Writer writer) {
+        return new XmlStreamWriter(new WriterOutput(writer), writer);
+    }
+
+    /** Puts each element on its own line, indented by <code>indentation</code> per level */
+    public XmlStreamWriter indent(@Nonnull String indentation) {
+        this.indentation = indentation;
+        this.indents = new String[] { "" };
+        return this;
+    }
+
+    /** Writes <code>&lt;?xml version="1.0" encoding="UTF-8"?&gt;</code>, like {@link Document} */
+    public XmlStreamWriter declaration() throws IOException {
+        checkOpen();
+        new Document().writeHeader(output);
+        return this;
+    }
+
+    public XmlStreamWriter start(@Nonnull String name) throws IOException {
+        return start(new QualifiedName(name));
+    }
+
+    /** Starts an element, declaring its namespace unless it's already in scope */
+    public XmlStreamWriter start(@Nonnull QualifiedName name) throws IOException {
+        beforeContent(true);
+        writeIndent();
+        output.write('<');
+        output.writeName(name);
+        namespaceScope.enter();
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, 2 * depth);
+            hasChildElements = Arrays.copyOf(hasChildElements, 2 * depth);
+        }
+        openElements[depth] = name;
+        hasChildElements[depth] = false;
+        depth++;
+        startTagOpen = true;
+        if (name.hasNamespace()) {
+            declare(name.getNamespace());
+        }
+        return this;
+    }
+
+    /** Declares the namespace on the element that was just started, unless it's already in scope */
+    public XmlStreamWriter namespace(@Nonnull Namespace namespace) throws IOException {
+        checkStartTag();
+        declare(namespace);
+        return this;
+    }
+
+    public XmlStreamWriter attr(@Nonnull String name, String value) throws IOException {
+        return attr(new QualifiedName(name), value);
+    }
+
+    /** Adds an attribute to the element that was just started */
+    public XmlStreamWriter attr(@Nonnull QualifiedName name, String value) throws IOException {
+        checkStartTag();
+        if (name.hasNamespace()) {
+            declare(name.getNamespace());
+        }
+        output.writeAttribute(name, value);
+        return this;
+    }
+
+    /** Writes escaped text. With indentation, the text is trimmed like {@link IntentedWriterXmlVisitor} does */
+    public XmlStreamWriter text(@Nonnull String text) throws IOException {
+        beforeContent(false);
+        output.writeText(indentation != null ? text.trim() : text);
+        return this;
+    }
+
+    public XmlStreamWriter cdata(@Nonnull String text) throws IOException {
+        beforeContent(false);
+        output.write("<![CDATA[");
+        output.write(text);
+        output.write("]]>");
+        return this;
+    }
+
+    public XmlStreamWriter comment(@Nonnull String text) throws IOException {
+        beforeContent(false);
+        writeIndent();
+        output.write("<!--");
+        output.write(text);
+        output.write("-->");
+        writeLineBreak();
+        return this;
+    }
+
+    /**
+     * Writes a complete element. Namespaces that are in scope where it's
+     * written are not declared again.
+     */
+    public XmlStreamWriter element(@Nonnull Element element) throws IOException {
+        beforeContent(true);
+        if (indentation != null) {
+            element.visit(new IntentedWriterXmlVisitor(output, namespaceScope, indentation, indent(depth)));
+        } else {
+            element.visit(new WriterXmlVisitor(output, namespaceScope));
+        }
+        return this;
+    }
+
+    /** Ends the innermost open element */
+    public XmlStreamWriter end() throws IOException {
+        checkOpen();
+        if (depth == 0) {
+            throw new IllegalStateException("There is no element to end");
+        }
+        QualifiedName name = openElements[--depth];
+        openElements[depth] = null;
+        if (startTagOpen) {
+            startTagOpen = false;
+            output.write(" />");
+        } else {
+            if (hasChildElements[depth]) {
+                writeIndent();
+            }
+            output.write("</");
+            output.writeName(name);
+            output.write('>');
+        }
+        namespaceScope.exit();
+        writeLineBreak();
+        return this;
+    }
+
+    /** Writes what is buffered to the destination and flushes it */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        output.flush();
+        if (destination instanceof Flushable) {
+            ((Flushable) destination).flush();
+        }
+    }
+
+    /** Ends the elements that are still open and closes the destination */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            while (depth > 0) {
+                end();
+            }
+            output.flush();
+        } finally {
+            closed = true;
+            destination.close();
+        }
+    }
+
+    private void beforeContent(boolean isElement) throws IOException {
+        checkOpen();
+        if (startTagOpen) {
+            startTagOpen = false;
+            output.write('>');
+            if (isElement) {
+                writeLineBreak();
+            }
+        }
+        if (isElement && depth > 0) {
+            hasChildElements[depth - 1] = true;
+        }
+    }
+
+    private void declare(Namespace namespace) throws IOException {
+        if (namespaceScope.declare(namespace)) {
+            output.writeNamespace(namespace);
+        }
+    }
+
+    private void writeIndent() throws IOException {
+        if (indentation != null) {
+            output.write(indent(depth));
+        }
+    }
+
+    private void writeLineBreak() throws IOException {
+        if (indentation != null) {
+            output.write(Document.LINE_SEPARATOR);
+        }
+    }
+
+    private String indent(int level) {
+        if (level >= indents.length) {
+            int oldLength = indents.length;
+            indents = Arrays.copyOf(indents, Math.max(2 * oldLength, level + 1));
+            for (int i = oldLength; i < indents.length; i++) {
+                indents[i] = indents[i - 1] + indentation;
+            }
+        }
+        return indents[level];
+    }
+
+    private void checkStartTag() {
+        checkOpen();
+        if (!startTagOpen) {
+            throw new IllegalStateException("Attributes and namespaces must follow start()");
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+    }
+
+}
@@ -35,10 +35,9 @@ class WebServer {
     }
 
     protected void writeXmlResponse(Element output, String contentType, HttpExchange exchange) throws IOException {
-        byte[] xml = output.toXML().getBytes();
-        exchange.sendResponseHeaders(200, xml.length);
-        exchange.getResponseHeaders().add("Content-Type", contentType);
-        exchange.getResponseBody().write(xml);
+        exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        output.writeTo(exchange.getResponseBody());
         exchange.close();
     }
 
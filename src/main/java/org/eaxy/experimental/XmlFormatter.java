@@ -25,25 +25,23 @@ public abstract class XmlFormatter {
 
         @Override
         public void visitElement(Element element) throws IOException {
-            writer.write("<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">");
-            printedNamespacesStack.push(element.getNamespaces());
+            writeStartTag(element);
+            writer.write('>');
             for (Node child : element.children()) {
                 child.visit(this);
             }
-            printedNamespacesStack.pop();
-            writer.write("</" + element.printTag() + ">");
+            writeEndTag(element);
         }
 
         public void write(ElementPath elementPath) throws IOException {
             Element element = elementPath.leafElement();
 
-            writer.write("<" + element.printTag() + printNamespaces(rootNamespaces) + element.printAttributes() + ">");
-            printedNamespacesStack.push(rootNamespaces);
+            writeStartTag(element, rootNamespaces);
+            writer.write('>');
             for (Node child : element.children()) {
                 child.visit(this);
             }
-            printedNamespacesStack.pop();
-            writer.write("</" + element.printTag() + ">");
+            writeEndTag(element);
         }
     }
 
@@ -1,6 +1,5 @@
 package org.eaxy.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
@@ -8,6 +7,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.GZIPInputStream;
@@ -22,23 +22,24 @@ public class IOUtils {
                 return slurp(inputStream);
             }
         } else {
-            try (BufferedReader reader = new BufferedReader(new FileReader(file), 1024)) {
+            try (Reader reader = new FileReader(file)) {
                 return slurp(reader);
             }
         }
     }
 
     public static String slurp(InputStream inputStream) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream), 1024)) {
+        try (Reader reader = new InputStreamReader(inputStream)) {
             return slurp(reader);
         }
     }
 
-    private static String slurp(BufferedReader reader) throws IOException {
+    private static String slurp(Reader reader) throws IOException {
         StringBuilder result = new StringBuilder();
-        int c;
-        while ((c = reader.read()) != -1) {
-            result.append((char)c);
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            result.append(buffer, 0, count);
         }
         return result.toString();
     }
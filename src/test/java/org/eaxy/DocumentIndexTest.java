@@ -0,0 +1,101 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eaxy.Xml.attr;
+import static org.eaxy.Xml.el;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DocumentIndexTest {
+
+    private static final Namespace NS = new Namespace("urn:test", "t");
+
+    private final Document doc = new Document(el("html",
+            el("body",
+                el("div", attr("id", "main"), attr("class", "content"),
+                    el("p", "first"),
+                    el("form", attr("name", "login"),
+                        el("input", attr("name", "user"), attr("type", "text")),
+                        el("input", attr("name", "password"), attr("type", "password")))),
+                el("div",
+                    el("p", el("span", attr("id", "inner"), Xml.text("second"))),
+                    NS.el("p", "namespaced")))));
+
+    @Test
+    public void shouldLookUpById() {
+        DocumentIndex index = doc.index();
+        assertThat(index.getById("inner").text()).isEqualTo("second");
+        assertThat(index.getById("missing")).isNull();
+    }
+
+    @Test
+    public void shouldLookUpByNameInDocumentOrder() {
+        DocumentIndex index = doc.index();
+        assertThat(index.getElements(new QualifiedName("p"))).extracting(Element::text)
+            .containsExactly("first", "second", "namespaced");
+        assertThat(index.getElements(NS.name("p"))).extracting(Element::text)
+            .containsExactly("first", "second", "namespaced");
+        assertThat(index.getElements(new QualifiedName("urn:other", "p", null))).extracting(Element::text)
+            .containsExactly("first", "second");
+        assertThat(index.getElements("type", "password")).extracting(e -> e.attr("name"))
+            .containsExactly("password");
+    }
+
+    @Test
+    public void shouldGiveSameResultsAsScan() {
+        Document unindexed = doc.copy();
+        doc.index();
+        assertSameResults(unindexed, "...", "p");
+        assertSameResults(unindexed, "...", "input[name=password]");
+        assertSameResults(unindexed, "body", "...", "div#main", "...", "input");
+        assertSameResults(unindexed, "...", "div", "p");
+        assertSameResults(unindexed, "...", "div.content", "...", "input[type=text]");
+        assertSameResults(unindexed, "...", NS.name("p"));
+        assertSameResults(unindexed, "...", "*");
+        assertSameResults(unindexed, "...", "missing");
+        assertThat(doc.select("span#inner").text()).isEqualTo("second");
+        assertSameResults(unindexed, "body", "div", "...", "p");
+    }
+
+    @Test
+    public void shouldSeeChangesToTree() {
+        doc.index();
+        Element form = doc.select("form");
+        form.add(el("input", attr("name", "remember")));
+        assertThat(doc.find("...", "input").attrs("name")).containsExactly("user", "password", "remember");
+
+        form.select("input[name=user]").attr("name", "username");
+        assertThat(doc.find("...", "input[name=username]").isPresent()).isTrue();
+        assertThat(doc.find("...", "input[name=user]").isEmpty()).isTrue();
+
+        Element taken = doc.select("div#main").take("form");
+        assertThat(doc.find("...", "input").isEmpty()).isTrue();
+        assertThat(taken.find("...", "input").attrs("name")).containsExactly("username", "password", "remember");
+        taken.add(el("input", attr("name", "late")));
+        assertThat(taken.find("input").attrs("name")).contains("late");
+
+        doc.getRootElement().delete(el("body"));
+        assertThat(doc.find("...", "span").isEmpty()).isTrue();
+        assertThat(doc.index().getById("main")).isNull();
+
+        doc.setRootElement(el("html", el("p", attr("id", "main"))));
+        assertThat(doc.index().getById("main").tagName()).isEqualTo("p");
+        assertThat(doc.find("...", "p#main").size()).isEqualTo(1);
+    }
+
+    private void assertSameResults(Document unindexed, Object... path) {
+        assertThat(paths(doc.find(path))).isEqualTo(paths(unindexed.find(path)));
+    }
+
+    private static List<String> paths(ElementSet elements) {
+        List<String> result = new ArrayList<>();
+        for (ElementPath path : elements.getPaths()) {
+            result.add(path.getPath().toString());
+        }
+        return result;
+    }
+
+}
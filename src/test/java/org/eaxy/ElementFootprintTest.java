@@ -0,0 +1,70 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ElementFootprintTest {
+
+    /**
+     * Parses a million elements and checks the heap they retain. Each record
+     * also keeps an attribute value and a text node, which are counted too.
+     */
+    @Test
+    public void parsedElementsShouldBeCompact() {
+        StringBuilder xml = new StringBuilder("<records>");
+        for (int i = 0; i < 250_000; i++) {
+            xml.append("<record id='").append(i).append("'><name>n</name><value/><empty/></record>");
+        }
+        byte[] bytes = xml.append("</records>").toString().getBytes(StandardCharsets.UTF_8);
+        xml = null;
+
+        long before = usedMemory();
+        Document doc = Utf8Reader.read(bytes);
+        long after = usedMemory();
+        long bytesPerElement = (after - before) / 1_000_000;
+
+        assertThat(doc.getRootElement().elements()).hasSize(250_000);
+        assertThat(bytesPerElement).as("bytes per element, with " + before + " bytes used before parsing and " + after + " after")
+            .isLessThan(120);
+    }
+
+    @Test
+    public void shouldKeepElementApiOnCompactStorage() {
+        Element element = Xml.el("item", Xml.attr("a", "1"), Xml.attr("b", "2"), Xml.text("x"));
+        element.attr("c", "3").attr("a", "4").attr("b", null);
+        assertThat(element.attrs()).containsExactly(entry("a", "4"), entry("c", "3"));
+        assertThat(element.attrNames()).containsExactly(new QualifiedName("a"), new QualifiedName("c"));
+        element.attrNames().remove(new QualifiedName("a"));
+        assertThat(element.hasAttr("a")).isFalse();
+
+        element.children().add(0, Xml.el("first"));
+        element.add(Xml.el("last"));
+        assertThat(element.children()).hasSize(3);
+        assertThat(element.elements()).extracting(Element::tagName).containsExactly("first", "last");
+        element.children().remove(1);
+        assertThat(element.text()).isEmpty();
+        element.delete(Xml.el("first"));
+        assertThat(element.elements()).extracting(Element::tagName).containsExactly("last");
+
+        Namespace namespace = new Namespace("urn:test", "t");
+        element.getNamespaces().add(namespace);
+        assertThat(element.getNamespace("t")).isSameAs(namespace);
+        Element copy = element.copy();
+        assertThat(copy.toXML()).isEqualTo(element.toXML())
+            .isEqualTo("<item xmlns:t=\"urn:test\" c=\"3\"><last /></item>");
+        assertThat(element.toString()).doesNotContain("@");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
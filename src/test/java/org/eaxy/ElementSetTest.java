@@ -0,0 +1,152 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.eaxy.Xml.el;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ElementSetTest {
+
+    private int visited;
+
+    private final ElementFilter countingFilter = new ElementFilter("item") {
+        @Override
+        public boolean matches(Element element) {
+            visited++;
+            return element.tagName().equals("item");
+        }
+    };
+
+    private final Element root = el("root");
+    {
+        for (int i = 0; i < 100; i++) {
+            root.add(el("group", el("other"), el("item", String.valueOf(i))));
+        }
+    }
+
+    @Test
+    public void shouldStopAtFirstMatch() {
+        assertThat(root.find("...", countingFilter).isPresent()).isTrue();
+        assertThat(visited).isEqualTo(3);
+        visited = 0;
+        assertThat(root.find("group", countingFilter).first().text()).isEqualTo("0");
+        assertThat(visited).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldStopAtSecondMatchForSingle() {
+        try {
+            root.find("...", countingFilter).single();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).startsWith("Too many matches");
+        }
+        visited = 0;
+        assertThat(root.find("...", countingFilter).get(1).text()).isEqualTo("1");
+        assertThat(visited).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldFindAllMatchesForSize() {
+        ElementSet items = root.find("...", countingFilter);
+        assertThat(items.isPresent()).isTrue();
+        assertThat(items.size()).isEqualTo(100);
+        assertThat(visited).isEqualTo(300);
+        assertThat(items.first().text()).isEqualTo("0");
+        assertThat(items.texts()).hasSize(100).endsWith("99");
+        assertThat(visited).isEqualTo(300);
+    }
+
+    @Test
+    public void shouldEvaluateChainedQueriesLazily() {
+        ElementSet items = root.find("group").find(countingFilter);
+        assertThat(visited).isZero();
+        assertThat(items.find(0).single().text()).isEqualTo("0");
+        assertThat(visited).isEqualTo(2);
+        assertThat(root.find("...", "group", 5, "item").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldKeepResultsComputedBeforeTreeChanges() {
+        ElementSet items = root.find("...", "item");
+        assertThat(items.size()).isEqualTo(100);
+        root.add(el("group", el("item", "100")));
+        assertThat(items.size()).isEqualTo(100);
+        assertThat(root.find("...", "item").size()).isEqualTo(101);
+    }
+
+    @Test
+    public void shouldComputeResultsOnceWhenSharedBetweenThreads() throws Exception {
+        ElementSet items = root.find("...", countingFilter);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(items::texts));
+            }
+            for (Future<List<String>> result : results) {
+                assertThat(result.get()).hasSize(100).startsWith("0", "1").endsWith("99");
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(visited).isEqualTo(300);
+    }
+
+    @Test
+    public void shouldFindInParallelInDocumentOrder() {
+        Element big = el("catalogue");
+        for (int i = 0; i < 300; i++) {
+            Element section = el("section", Xml.attr("id", "s" + i));
+            for (int j = 0; j < 20; j++) {
+                section.add(el("record", Xml.attr("id", i + "-" + j), el("name", "n" + j), el("record", el("name", "nested"))));
+            }
+            big.add(section);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Object[] path : new Object[][] {
+                    { "...", "record" }, { "...", "record", "name" }, { "section", "...", "name" },
+                    { "...", "section#s17", "...", "record" }, { "...", "record", 1 } }) {
+                assertThat(paths(new ElementSet(big).parallelFind(Xml.compile(path), pool, 10)))
+                    .as(java.util.Arrays.toString(path))
+                    .isEqualTo(paths(new ElementSet(big).find(path)));
+            }
+            assertThat(new ElementSet(big).parallelFind("...", "name").size()).isEqualTo(12000);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSearchDeepTreesInParallel() {
+        Element deep = el("leaf");
+        for (int i = 0; i < 5000; i++) {
+            deep = el("level", el("side", "s" + i), deep);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertThat(new ElementSet(deep).parallelFind(Xml.compile("...", "side"), pool, 1).size()).isEqualTo(5000);
+            assertThat(new ElementSet(deep).parallelFind(Xml.compile("...", "leaf"), pool, 1).single().tagName()).isEqualTo("leaf");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<List<Element>> paths(ElementSet elements) {
+        List<List<Element>> result = new ArrayList<>();
+        for (ElementPath path : elements.getPaths()) {
+            result.add(path.getPath());
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelXmlSpliteratorTest {
+
+    private static final Namespace RECORDS = new Namespace("urn:records", "r");
+    private static final Namespace EXTRA = new Namespace("urn:extra", "x");
+
+    private ExecutorService executor;
+    private Path file;
+
+    @Before
+    public void createFile() throws Exception {
+        executor = Executors.newFixedThreadPool(3);
+        file = Files.createTempFile("eaxy-records", ".xml");
+        StringBuilder xml = new StringBuilder("<?xml version='1.0'?>\n<r:catalogue xmlns:r='urn:records' xmlns:x='urn:extra'>\n");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("  <r:record id='").append(i).append("' x:kind='").append(i % 3).append("'>")
+                .append("<r:name>nørwægiån &amp; ").append(i).append("</r:name>")
+                .append(i % 7 == 0 ? "<x:empty/>" : "<!-- no extra -->")
+                .append("</r:record>\n");
+        }
+        xml.append("</r:catalogue>");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        executor.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void shouldReturnRecordsInDocumentOrder() {
+        List<String> expected = new ArrayList<>();
+        for (Element element : Xml.filter(RECORDS.name("record")).iterate(file)) {
+            expected.add(element.toXML());
+        }
+        try (ParallelXmlSpliterator spliterator = Xml.filter(RECORDS.name("record")).iterateParallel(file, executor, true)) {
+            List<String> actual = StreamSupport.stream(spliterator, false)
+                    .map(Element::toXML).collect(Collectors.toList());
+            assertThat(actual).hasSize(2000).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void shouldCutRecordsAcrossMappedRegions() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (Element element : Xml.filter(RECORDS.name("record")).iterate(file)) {
+            expected.add(element.toXML());
+        }
+        try (ParallelXmlSpliterator spliterator = new ParallelXmlSpliterator(Xml.filter(RECORDS.name("record")),
+                ByteInput.map(file, 1000), ParserSettings.DEFAULT, executor, true)) {
+            List<String> actual = StreamSupport.stream(spliterator, false)
+                    .map(Element::toXML).collect(Collectors.toList());
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void shouldReturnAllRecordsUnordered() {
+        try (ParallelXmlSpliterator spliterator = Xml.filter("record").iterateParallel(file, executor, false)) {
+            List<String> ids = StreamSupport.stream(spliterator, false)
+                    .map(e -> e.attr("id")).sorted().collect(Collectors.toList());
+            assertThat(ids).hasSize(2000).doesNotHaveDuplicates().contains("0", "1999");
+            assertThat(spliterator.characteristics() & ParallelXmlSpliterator.ORDERED).isZero();
+        }
+    }
+
+    @Test
+    public void shouldCarryAncestorNamespacesIntoRecords() {
+        try (ParallelXmlSpliterator spliterator = Xml.filter("record").iterateParallel(file, executor, true)) {
+            spliterator.tryAdvance(record -> {
+                assertThat(record.getName()).isEqualTo(RECORDS.name("record"));
+                assertThat(record.attr(EXTRA.name("kind"))).isEqualTo("0");
+                assertThat(record.find(EXTRA.name("empty")).isPresent()).isTrue();
+                assertThat(record.find("name").single().text()).isEqualTo("nørwægiån & 0");
+                assertThat(record.toString()).endsWith("@3");
+            });
+        }
+    }
+
+    @Test
+    public void shouldReportMalformedRecord() throws Exception {
+        Files.write(file, "<catalogue><record><a></b></record></catalogue>".getBytes(StandardCharsets.UTF_8));
+        try (ParallelXmlSpliterator spliterator = Xml.filter("record").iterateParallel(file, executor, true)) {
+            spliterator.tryAdvance(record -> fail("Expected exception, got " + record));
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("</a>");
+        }
+    }
+
+    @Test
+    public void shouldReportUnbalancedRecord() throws Exception {
+        Files.write(file, "<catalogue><record><a><b></a></record></catalogue>".getBytes(StandardCharsets.UTF_8));
+        try (ParallelXmlSpliterator spliterator = Xml.filter("record").iterateParallel(file, executor, true)) {
+            spliterator.tryAdvance(record -> fail("Expected exception, got " + record));
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("</record>");
+        }
+    }
+
+    @Test
+    public void shouldReadCompressedFile() throws Exception {
+        File compressed = new File("src/test/xml/performance-suite/medsamp2012.xml.gz");
+        ElementQuery query = Xml.filter("MedlineCitation");
+        List<String> expected = new ArrayList<>();
+        for (Element element : query.iterate(compressed.toPath())) {
+            expected.add(element.find("PMID").single().text());
+        }
+        try (ParallelXmlSpliterator spliterator = query.iterateParallel(compressed.toPath(), executor, true)) {
+            assertThat(StreamSupport.stream(spliterator, false)
+                    .map(e -> e.find("PMID").single().text()).collect(Collectors.toList()))
+                .isEqualTo(expected);
+        }
+    }
+
+}
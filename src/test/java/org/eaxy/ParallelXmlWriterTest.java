@@ -0,0 +1,84 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eaxy.Xml.el;
+import static org.eaxy.Xml.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelXmlWriterTest {
+
+    private static final Namespace SOAP = new Namespace("http://schemas.xmlsoap.org/soap/envelope/", "S");
+    private static final Namespace ORDERS = new Namespace("http://example.com/orders", "o");
+    private static final Namespace OTHER = new Namespace("http://example.com/other", "o");
+
+    @Test
+    public void shouldWriteSameBytesAsSequential() throws IOException {
+        Element orders = ORDERS.el("orders");
+        for (int i = 0; i < 3000; i++) {
+            Element order = ORDERS.el("order", ORDERS.el("item", "Blåbær & fløte " + i), el("note"))
+                    .attr("id", String.valueOf(i));
+            if (i % 100 == 0) {
+                // Rebinds the prefix inside a run, which must be declared again after it
+                order.add(OTHER.el("extra", ORDERS.el("back")));
+            }
+            orders.add(order);
+            orders.add(text("\n"));
+        }
+        Element archive = el("archive");
+        for (int i = 0; i < 5000; i++) {
+            archive.add(ORDERS.el("old", "<" + i + ">"));
+        }
+        Document document = new Document(SOAP.el("Envelope", SOAP.el("Header"),
+                SOAP.el("Body", orders, Xml.comment("between"), archive)));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(writeParallel(document, pool)).isEqualTo(writeSequential(document));
+
+            Document small = new Document(el("root", el("child", "text")));
+            assertThat(writeParallel(small, pool)).isEqualTo(writeSequential(small));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSplitDeepDocumentsLikeSequential() throws IOException {
+        Element root = el("level");
+        Element level = root;
+        for (int depth = 0; depth < 2000; depth++) {
+            for (int i = 0; i < 10; i++) {
+                level.add(el("leaf", String.valueOf(i)));
+            }
+            Element next = el("level");
+            level.add(next);
+            level = next;
+        }
+        Document document = new Document(root);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(writeParallel(document, pool)).isEqualTo(writeSequential(document));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] writeParallel(Document document, ForkJoinPool pool) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        document.writeTo(output, pool);
+        return output.toByteArray();
+    }
+
+    private static byte[] writeSequential(Document document) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        document.writeTo(output);
+        return output.toByteArray();
+    }
+
+}
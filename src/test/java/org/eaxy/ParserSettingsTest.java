@@ -0,0 +1,74 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ParserSettingsTest {
+
+    private static final String XML = "<root>\n  <a>text</a>\n  <b><![CDATA[ some <cdata> ]]></b>\n</root>";
+
+    @Test
+    public void shouldReuseFactories() {
+        ParserSettings settings = ParserSettings.DEFAULT.withCoalescing(true);
+        assertThat(settings.getInputFactory()).isSameAs(settings.getInputFactory());
+        assertThat(ParserSettings.DEFAULT.getInputFactory()).isNotSameAs(settings.getInputFactory());
+    }
+
+    @Test
+    public void shouldKeepWhitespaceByDefault() {
+        assertThat(Xml.xml(XML).getRootElement().children()).hasSize(5);
+    }
+
+    @Test
+    public void shouldIgnoreWhitespace() {
+        ParserSettings settings = ParserSettings.DEFAULT.withIgnoreWhitespace(true);
+        assertThat(Xml.xml(XML, settings).getRootElement().toXML())
+            .isEqualTo("<root><a>text</a><b><![CDATA[ some <cdata> ]]></b></root>");
+    }
+
+    @Test
+    public void shouldIgnoreWhitespaceWithSax() throws Exception {
+        ParserSettings settings = ParserSettings.DEFAULT.withIgnoreWhitespace(true);
+        Document doc = SaxReader.read(new ByteArrayInputStream(XML.getBytes(Xml.UTF_8)), settings);
+        assertThat(doc.getRootElement().toXML())
+            .isEqualTo("<root><a>text</a><b><![CDATA[ some <cdata> ]]></b></root>");
+    }
+
+    @Test
+    public void shouldReadCdataAsText() throws Exception {
+        ParserSettings settings = ParserSettings.DEFAULT.withReportCdata(false);
+        assertThat(Xml.xml(XML, settings).find("b").single().toXML())
+            .isEqualTo("<b> some &lt;cdata&gt; </b>");
+        Document doc = SaxReader.read(new ByteArrayInputStream(XML.getBytes(Xml.UTF_8)), settings);
+        assertThat(doc.find("b").single().toXML())
+            .isEqualTo("<b> some &lt;cdata&gt; </b>");
+    }
+
+    @Test
+    public void shouldTrackLineNumbers() {
+        assertThat(Xml.xml(XML).find("b").single().toString()).endsWith("@3");
+        assertThat(Xml.xml(XML, ParserSettings.DEFAULT.withLineNumbers(false)).find("b").single().toString())
+            .doesNotContain("@");
+    }
+
+    @Test
+    public void shouldIterateWithSettings() {
+        ParserSettings settings = ParserSettings.DEFAULT.withLineNumbers(false).withIgnoreWhitespace(true);
+        List<String> elements = Xml.filter("b").iterate(new StringReader(XML), settings).stream()
+                .map(Element::toString).collect(Collectors.toList());
+        assertThat(elements).containsExactly("<b><![CDATA[ some <cdata> ]]></b>");
+    }
+
+    @Test
+    public void shouldNotFetchExternalDtdByDefault() {
+        String xml = "<!DOCTYPE root SYSTEM \"http://localhost:1/missing.dtd\"><root />";
+        assertThat(Xml.xml(xml).toXML()).contains("<!DOCTYPE root SYSTEM \"http://localhost:1/missing.dtd\">");
+    }
+
+}
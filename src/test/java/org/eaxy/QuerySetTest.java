@@ -0,0 +1,94 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.eaxy.Xml.attr;
+import static org.eaxy.Xml.el;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QuerySetTest {
+
+    private final Element root = el("messages",
+            el("header", el("sender", "a"), el("receiver", "b")),
+            el("message", attr("id", "m1"), attr("class", "urgent"),
+                el("line", "one"), el("line", el("line", "nested"))),
+            el("message", attr("id", "m2"),
+                el("line", "two"), el("attachment", el("line", "attached"))));
+
+    private final Object[][] paths = {
+            { "...", "line" }, { "message", "line" }, { "header", "sender" },
+            { "...", "message.urgent", "...", "line" }, { "message#m2", "*" },
+            { "...", "missing" }, { "...", "line", "line" }, { "...", "message" }, { "message", 1, "...", "line" } };
+
+    @Test
+    public void shouldFindSameElementsAsSeparateQueries() {
+        QuerySet queries = querySet();
+        List<ElementSet> results = queries.search(root);
+        assertThat(results).hasSize(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            assertThat(results.get(i).elements()).as(java.util.Arrays.toString(paths[i]))
+                .containsExactlyElementsOf(root.find(paths[i]).elements());
+        }
+        assertThat(results.get(0).getPaths().get(2).getPath())
+            .extracting(Element::tagName).containsExactly("messages", "message", "line", "line");
+        assertThat(queries.search(new Document(root)).get(2).single().text()).isEqualTo("a");
+    }
+
+    @Test
+    public void shouldOnlyVisitSubtreesWhereQueriesCanMatch() {
+        List<String> visited = new ArrayList<>();
+        ElementFilter counting = new ElementFilter("sender") {
+            @Override
+            public boolean matches(Element element) {
+                visited.add(element.tagName());
+                return element.tagName().equals("sender");
+            }
+        };
+        new QuerySet(Xml.compile("header", counting), Xml.compile("message#m1")).search(root);
+        assertThat(visited).containsExactly("sender", "receiver");
+    }
+
+    @Test
+    public void shouldSearchUnsupportedQueriesSeparately() {
+        QuerySet queries = new QuerySet(Xml.compile("message", 1, "line"), Xml.compile("...", "line", 1));
+        List<ElementSet> results = queries.search(root);
+        assertThat(results.get(0).texts()).containsExactly("two");
+        assertThat(results.get(1).elements()).isEqualTo(root.find("...", "line", 1).elements());
+        try {
+            queries.iterate(new StringReader(""));
+            fail("Expected exception");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getMessage()).startsWith("Can't iterate");
+        }
+    }
+
+    @Test
+    public void shouldStreamMatchesForAllQueries() {
+        List<List<Element>> streamed = new ArrayList<>();
+        for (int i = 0; i < paths.length; i++) {
+            streamed.add(new ArrayList<>());
+        }
+        for (QuerySet.Match match : querySet().iterate(new StringReader(new Document(root).toXML()))) {
+            streamed.get(match.getIndex()).add(match.getElement());
+        }
+        for (int i = 0; i < paths.length; i++) {
+            assertThat(streamed.get(i)).as(java.util.Arrays.toString(paths[i]))
+                .containsExactlyElementsOf(root.find(paths[i]).elements());
+        }
+        assertThat(streamed.get(7).get(0).find("line").size()).isEqualTo(2);
+    }
+
+    private QuerySet querySet() {
+        List<ElementQuery> queries = new ArrayList<>();
+        for (Object[] path : paths) {
+            queries.add(Xml.compile(path));
+        }
+        return new QuerySet(queries);
+    }
+
+}
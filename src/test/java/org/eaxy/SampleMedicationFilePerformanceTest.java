@@ -45,11 +45,10 @@ public class SampleMedicationFilePerformanceTest {
 
         try (ZipFile zipFile = new ZipFile(medicationsZip)) {
             for (Element medication : Xml.filter("KatLegemiddelpakning", "OppfLegemiddelpakning", "Legemiddelpakning")
-                    .iterate(new InputStreamReader(new BOMInputStream(zipFile.getInputStream(zipFile.getEntry("fest251.xml")))))) {
-                ElementSet atcCode = medication.find("Atc");
-                if (atcCode.isPresent() && atcCode.first().attr("V").equals("N06BA04")) {
-                    ritalinSubstitutes.add(medication.find("NavnFormStyrke").first().text());
-                }
+                    .iterate(new InputStreamReader(new BOMInputStream(zipFile.getInputStream(zipFile.getEntry("fest251.xml")))))
+                    .where("Atc", atc -> atc.attr("V").equals("N06BA04"))
+                    .project("NavnFormStyrke")) {
+                ritalinSubstitutes.add(medication.find("NavnFormStyrke").first().text());
             }
         }
 
@@ -0,0 +1,91 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+
+    private static final String XML = "<a:root xmlns:a='urn:a' xmlns:b='urn:b'>"
+            + "<a:item b:id='1'><name>one</name></a:item>"
+            + "<a:item b:id='2'><name>two</name></a:item>"
+            + "</a:root>";
+
+    @Test
+    public void shouldShareNamesWithinStaxParse() {
+        assertNamesShared(Xml.xml(XML));
+    }
+
+    @Test
+    public void shouldShareNamesWithinSaxParse() throws Exception {
+        assertNamesShared(SaxReader.read(new ByteArrayInputStream(XML.getBytes(Xml.UTF_8))));
+    }
+
+    @Test
+    public void shouldShareNamesWithinNativeParse() {
+        assertNamesShared(Utf8Reader.read(XML.getBytes(Xml.UTF_8)));
+    }
+
+    @Test
+    public void shouldShareNamesWhileIterating() {
+        List<Element> items = new ArrayList<>();
+        for (Element item : Xml.filter("item").iterate(new StringReader(XML))) {
+            items.add(item);
+        }
+        assertThat(items).hasSize(2);
+        assertThat(items.get(0).getName()).isSameAs(items.get(1).getName());
+        assertThat(items.get(0).find("name").single().getName())
+            .isSameAs(items.get(1).find("name").single().getName());
+    }
+
+    @Test
+    public void shouldShareNamesBetweenDocumentsWithSharedTable() {
+        SymbolTable symbols = new SymbolTable();
+        ParserSettings settings = ParserSettings.DEFAULT.withSymbolTable(symbols);
+        Document first = Xml.xml(XML, settings);
+        Document second = Xml.xml(XML, settings.withNativeParser(true));
+        assertThat(first.getRootElement().getName()).isSameAs(second.getRootElement().getName());
+        assertThat(first.find("item", "name").first().getName())
+            .isSameAs(second.find("item", "name").first().getName())
+            .isSameAs(symbols.name(null, "name", null));
+    }
+
+    @Test
+    public void shouldKeepNamesWithoutSharedTableSeparate() {
+        Document first = Xml.xml(XML);
+        Document second = Xml.xml(XML);
+        assertThat(first.getRootElement().getName())
+            .isNotSameAs(second.getRootElement().getName())
+            .isEqualTo(second.getRootElement().getName());
+    }
+
+    @Test
+    public void shouldInternNamespaces() {
+        SymbolTable symbols = new SymbolTable();
+        Namespace namespace = symbols.namespace("urn:a", "a");
+        assertThat(symbols.namespace("urn:a", "a")).isSameAs(namespace);
+        assertThat(symbols.namespace("urn:a", null)).isNotSameAs(namespace).isEqualTo(namespace);
+        assertThat(symbols.name("urn:a", "a:item")).isSameAs(symbols.name("urn:a", "item", "a"))
+            .isEqualTo(new QualifiedName("urn:a", "item", "a"));
+        assertThat(symbols.name("urn:a", "a:item").getNamespace()).isSameAs(namespace);
+        assertThat(symbols.namespace("", null)).isSameAs(Namespace.NO_NAMESPACE);
+    }
+
+    private void assertNamesShared(Document doc) {
+        ElementSet items = doc.find("item");
+        assertThat(items.size()).isEqualTo(2);
+        Element first = items.get(0), second = items.get(1);
+        assertThat(first.getName()).isSameAs(second.getName());
+        assertThat(first.getName().getNamespace()).isSameAs(doc.getRootElement().getName().getNamespace());
+        assertThat(first.find("name").single().getName()).isSameAs(second.find("name").single().getName());
+        assertThat(first.attrNames().iterator().next())
+            .isSameAs(second.attrNames().iterator().next());
+        assertThat(first.attr(new Namespace("urn:b").name("id"))).isEqualTo("1");
+    }
+
+}
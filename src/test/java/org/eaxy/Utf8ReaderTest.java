@@ -0,0 +1,256 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class Utf8ReaderTest {
+
+    private static final ParserSettings NATIVE = ParserSettings.DEFAULT.withNativeParser(true);
+
+    @Test
+    public void shouldReadElementsAndText() {
+        Document doc = Xml.xml("<?xml version=\"1.0\"?>\n<root a='1' b=\"x &amp; y\"><child>text &lt;here&gt; &#x41;&#66;</child><!-- note --><![CDATA[<raw>]]></root>", NATIVE);
+        assertThat(doc.getVersion()).isEqualTo("1.0");
+        assertThat(doc.getRootElement().attr("b")).isEqualTo("x & y");
+        assertThat(doc.find("child").single().text()).isEqualTo("text <here> AB");
+        assertThat(doc.getRootElement().toXML())
+            .isEqualTo("<root a=\"1\" b=\"x &amp; y\"><child>text &lt;here&gt; AB</child><!-- note --><![CDATA[<raw>]]></root>");
+    }
+
+    @Test
+    public void shouldResolveNamespaces() {
+        Document doc = Xml.xml("<a:root xmlns:a='urn:a' xmlns='urn:default'><child a:attr='v'><a:child/></child></a:root>", NATIVE);
+        Namespace a = new Namespace("urn:a", "a");
+        assertThat(doc.getRootElement().getName()).isEqualTo(a.name("root"));
+        Element child = doc.getRootElement().find("child").single();
+        assertThat(child.getName()).isEqualTo(new Namespace("urn:default").name("child"));
+        assertThat(child.attr(a.name("attr"))).isEqualTo("v");
+        assertThat(child.find(a.name("child")).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldNormalizeLineBreaksAndReferences() {
+        Document doc = Xml.xml("<root a='x\r\ny&#9;&#xE6;'>\r\n  line&#x2014;&#128512;\r</root>", NATIVE);
+        assertThat(doc.getRootElement().attr("a")).isEqualTo("x y\tæ");
+        assertThat(doc.getRootElement().text()).isEqualTo("\n  line—😀\n");
+    }
+
+    @Test
+    public void shouldReadNonAsciiCharacters() {
+        Document doc = Utf8Reader.read("<p>nørwægiån € 😀</p>".getBytes(StandardCharsets.UTF_8));
+        assertThat(doc.getRootElement().text()).isEqualTo("nørwægiån € 😀");
+    }
+
+    @Test
+    public void shouldTranscodeDeclaredEncoding() {
+        byte[] bytes = "<?xml version='1.0' encoding='ISO-8859-1'?><p>nørwægiån</p>".getBytes(StandardCharsets.ISO_8859_1);
+        assertThat(Utf8Reader.read(bytes).getRootElement().text()).isEqualTo("nørwægiån");
+    }
+
+    @Test
+    public void shouldReadStreamInSmallChunks() throws Exception {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<item id='").append(i).append("'>nørwægiån &amp; ").append(i).append("</item>\n");
+        }
+        xml.append("</root>");
+        InputStream input = new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        Document doc = Utf8Reader.read(input, null, ParserSettings.DEFAULT);
+        assertThat(doc.toXML()).isEqualTo(Xml.xml(xml).toXML());
+    }
+
+    @Test
+    public void shouldContinueLongTokensAcrossChunks() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append(" nørwægiån &amp; ]]\r\n");
+        }
+        String xml = "<root><text>" + text + "</text><!--" + text + "--><![CDATA[" + text + "]]><?pi " + text + "?>"
+                + "<last />\n</root>";
+        InputStream input = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        Document doc = Utf8Reader.read(input, null, ParserSettings.DEFAULT);
+        Document expected = Xml.xml(xml, NATIVE);
+        assertThat(doc.toXML()).isEqualTo(expected.toXML());
+        assertThat(doc.find("text").single().text()).isEqualTo(expected.find("text").single().text());
+        assertThat(doc.find("last").single().toString()).endsWith("@" + (1 + 4 * 2000));
+    }
+
+    @Test
+    public void shouldReadMappedFileAcrossChunks() throws Exception {
+        Path file = Files.createTempFile("eaxy-mapped", ".xml");
+        try {
+            StringBuilder xml = new StringBuilder("<?xml version='1.0'?>\n<records xmlns='urn:records'>\n");
+            for (int i = 0; i < 40000; i++) {
+                xml.append("  <record id='").append(i).append("'><name>nørwægiån ").append(i).append("</name></record>\n");
+            }
+            xml.append("</records>");
+            Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+            assertThat(Files.size(file)).isGreaterThan(2 * 1024 * 1024);
+
+            Document doc = Xml.read(file);
+            assertThat(doc.getRootElement().find("record").size()).isEqualTo(40000);
+            assertThat(doc.find("record", 39999).single().text()).isEqualTo("nørwægiån 39999");
+
+            int count = 0;
+            for (Element record : Xml.filter("record").iterate(file)) {
+                assertThat(record.text()).isEqualTo("nørwægiån " + count++);
+            }
+            assertThat(count).isEqualTo(40000);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldContinueTokensAcrossMappedRegions() throws Exception {
+        Path file = Files.createTempFile("eaxy-regions", ".xml");
+        try {
+            StringBuilder longText = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                longText.append("nørwægiån &amp; ").append(i).append('\n');
+            }
+            StringBuilder xml = new StringBuilder("<?xml version='1.0'?>\n<records xmlns='urn:records'>\n");
+            for (int i = 0; i < 2000; i++) {
+                xml.append("  <record id='").append(i).append("'><name>nørwægiån ").append(i).append("</name><!-- ")
+                    .append(i).append(" --></record>\n");
+                if (i % 500 == 0) {
+                    xml.append("<long>").append(longText).append("</long>\n");
+                }
+            }
+            xml.append("</records>");
+            Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+            String expected = Xml.xml(xml, NATIVE).toXML();
+
+            try (ByteInput input = ByteInput.map(file, 4096)) {
+                assertThat(Utf8Reader.read(input, null, ParserSettings.DEFAULT).toXML()).isEqualTo(expected);
+            }
+            try (ByteInput input = ByteInput.map(file, 1000)) {
+                int count = 0;
+                for (XmlIterator iterator = new XmlIterator(XmlEventSource.of(input), Xml.filter("record"), ParserSettings.DEFAULT);
+                        iterator.hasNext();) {
+                    Element record = iterator.next();
+                    assertThat(record.find("name").single().text()).isEqualTo("nørwægiån " + count);
+                    assertThat(record.toString()).endsWith("@" + (3 + count + 1001 * ((count + 499) / 500)));
+                    count++;
+                }
+                assertThat(count).isEqualTo(2000);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldFeedTokenizerByteByByte() {
+        byte[] bytes = "<root><a x='1'>æ</a></root>".getBytes(StandardCharsets.UTF_8);
+        Utf8Tokenizer tokenizer = new Utf8Tokenizer();
+        StringBuilder events = new StringBuilder();
+        int pos = 0;
+        while (true) {
+            int event = tokenizer.next();
+            if (event == Utf8Tokenizer.NEED_INPUT) {
+                if (pos < bytes.length) {
+                    tokenizer.feed(ByteBuffer.wrap(bytes, pos++, 1));
+                } else {
+                    tokenizer.endOfInput();
+                }
+            } else if (event == Utf8Tokenizer.END_DOCUMENT) {
+                break;
+            } else {
+                events.append(event).append(event == Utf8Tokenizer.CHARACTERS ? tokenizer.getText() : "").append(",");
+            }
+        }
+        assertThat(events.toString()).isEqualTo("7,1,1,4æ,2,2,");
+    }
+
+    @Test
+    public void shouldTrackLineNumbers() {
+        Document doc = Xml.xml("<root>\n\n  <child/>\n</root>", NATIVE);
+        assertThat(doc.find("child").single().toString()).endsWith("@3");
+    }
+
+    @Test
+    public void shouldReportMismatchedEndTag() {
+        try {
+            Xml.xml("<root>\n<child></root>", NATIVE);
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("</child>");
+            assertThat(e.getMessage()).endsWith("on line 2");
+        }
+    }
+
+    @Test
+    public void shouldReportUnboundPrefix() {
+        try {
+            Xml.xml("<a:root/>", NATIVE);
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("a");
+        }
+    }
+
+    @Test
+    public void shouldRejectDuplicateAttributes() {
+        try {
+            Xml.xml("<root>\n<a b='1' b='2'/></root>", NATIVE);
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("b").endsWith("on line 2");
+        }
+    }
+
+    @Test
+    public void shouldRejectReferencesToInvalidCharacters() {
+        for (String reference : new String[] { "&#0;", "&#x1F;", "&#xD800;", "&#xFFFE;", "&#x110000;" }) {
+            try {
+                Xml.xml("<root>" + reference + "</root>", NATIVE).getRootElement().text();
+                fail("Expected exception for " + reference);
+            } catch (MalformedXMLException e) {
+                assertThat(e.getMessage()).contains(reference);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectInvalidNames() {
+        for (String xml : new String[] { "<1a/>", "<root -a='1'/>", "<.root/>" }) {
+            try {
+                Xml.xml(xml, NATIVE);
+                fail("Expected exception for " + xml);
+            } catch (MalformedXMLException e) {
+                assertThat(e.getMessage()).isNotEmpty();
+            }
+        }
+    }
+
+    @Test
+    public void shouldReportTruncatedDocument() {
+        try {
+            Xml.xml("<root><child>", NATIVE);
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).isNotEmpty();
+        }
+    }
+
+}
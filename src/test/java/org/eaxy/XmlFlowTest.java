@@ -0,0 +1,136 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class XmlFlowTest {
+
+    private static final String XML;
+    static {
+        StringBuilder xml = new StringBuilder("<records>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<record id='").append(i).append("' />");
+        }
+        XML = xml.append("</records>").toString();
+    }
+
+    private static class RecordingSubscriber implements XmlFlow.Subscriber<Element> {
+        private XmlFlow.Subscription subscription;
+        private final List<String> ids = new ArrayList<>();
+        private Throwable error;
+        private boolean complete;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(XmlFlow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Element item) {
+            ids.add(item.id());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.complete = true;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void shouldOnlyParseRequestedElements() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Xml.filter("record").publish(new StringReader(XML), ParserSettings.DEFAULT, Runnable::run).subscribe(subscriber);
+        assertThat(subscriber.ids).isEmpty();
+        subscriber.subscription.request(2);
+        assertThat(subscriber.ids).containsExactly("0", "1");
+        subscriber.subscription.request(3);
+        assertThat(subscriber.ids).containsExactly("0", "1", "2", "3", "4");
+        assertThat(subscriber.complete).isFalse();
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(subscriber.ids).hasSize(100);
+        assertThat(subscriber.complete).isTrue();
+    }
+
+    @Test
+    public void shouldStopOnCancel() {
+        List<String> ids = new ArrayList<>();
+        Xml.filter("record").iterate(new StringReader(XML)).publish(Runnable::run).subscribe(new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(XmlFlow.Subscription subscription) {
+                subscription.request(10);
+                subscription.cancel();
+                subscription.request(10);
+            }
+
+            @Override
+            public void onNext(Element item) {
+                ids.add(item.id());
+            }
+        });
+        assertThat(ids).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+    }
+
+    @Test
+    public void shouldSignalErrors() throws Exception {
+        RecordingSubscriber invalidRequest = new RecordingSubscriber();
+        Xml.filter("record").publish(new StringReader(XML), ParserSettings.DEFAULT, Runnable::run).subscribe(invalidRequest);
+        invalidRequest.subscription.request(0);
+        assertThat(invalidRequest.error).isInstanceOf(IllegalArgumentException.class);
+
+        RecordingSubscriber malformed = new RecordingSubscriber();
+        Xml.filter("record").publish(new StringReader("<records><record id='0' /><record></records>"), ParserSettings.DEFAULT, Runnable::run)
+            .subscribe(malformed);
+        malformed.subscription.request(5);
+        assertThat(malformed.error).isInstanceOf(RuntimeException.class);
+        assertThat(malformed.complete).isFalse();
+    }
+
+    @Test
+    public void shouldParseOnExecutor() throws Exception {
+        Path file = Files.createTempFile("eaxy-flow", ".xml");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+            Thread caller = Thread.currentThread();
+            List<Thread> threads = new ArrayList<>();
+            RecordingSubscriber subscriber = new RecordingSubscriber() {
+                @Override
+                public void onNext(Element item) {
+                    threads.add(Thread.currentThread());
+                    super.onNext(item);
+                    super.subscription.request(1);
+                }
+            };
+            Xml.filter("record").publish(file, executor).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            assertThat(subscriber.done.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(subscriber.ids).hasSize(100);
+            assertThat(threads).doesNotContain(caller);
+        } finally {
+            executor.shutdown();
+            Files.delete(file);
+        }
+    }
+
+}
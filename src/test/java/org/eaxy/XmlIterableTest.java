@@ -0,0 +1,305 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class XmlIterableTest {
+
+    private static final String XML;
+    static {
+        StringBuilder xml = new StringBuilder("<records>");
+        for (int i = 0; i < 500; i++) {
+            xml.append("<record id='").append(i).append("'><value>").append(i * 2).append("</value></record>");
+        }
+        XML = xml.append("</records>").toString();
+    }
+
+    private final AtomicBoolean opened = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Test
+    public void shouldStreamMatchingElements() {
+        List<String> values = Xml.filter("record").iterate(new StringReader(XML)).stream()
+                .filter(e -> Integer.parseInt(e.attr("id")) % 100 == 0)
+                .map(e -> e.find("value").single().text())
+                .collect(Collectors.toList());
+        assertThat(values).containsExactly("0", "200", "400", "600", "800");
+    }
+
+    @Test
+    public void shouldKeepDocumentOrderInParallelStream() {
+        List<String> ids = Xml.filter("record").iterate(new StringReader(XML)).parallelStream()
+                .map(e -> e.attr("id"))
+                .collect(Collectors.toList());
+        assertThat(ids).hasSize(500);
+        for (int i = 0; i < ids.size(); i++) {
+            assertThat(ids.get(i)).isEqualTo(String.valueOf(i));
+        }
+    }
+
+    @Test
+    public void shouldSplitInBatches() {
+        Spliterator<Element> spliterator = Xml.filter("record").iterate(new StringReader(XML)).spliterator();
+        assertThat(spliterator.characteristics()).isEqualTo(Spliterator.ORDERED | Spliterator.NONNULL);
+        Spliterator<Element> first = spliterator.trySplit();
+        Spliterator<Element> second = spliterator.trySplit();
+        long splitCount = first.estimateSize() + second.estimateSize();
+        assertThat(first.estimateSize()).isLessThan(second.estimateSize());
+        first.tryAdvance(e -> assertThat(e.attr("id")).isEqualTo("0"));
+        spliterator.tryAdvance(e -> assertThat(e.attr("id")).isEqualTo(String.valueOf(splitCount)));
+    }
+
+    @Test
+    public void shouldCloseInputWhenStreamIsClosed() throws Exception {
+        try (Stream<Element> stream = Xml.filter("record").iterate(trackedUrl()).stream()) {
+            assertThat(stream.findFirst().get().attr("id")).isEqualTo("0");
+            assertThat(closed.get()).isFalse();
+        }
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    public void shouldOpenInputWhenStreamIsConsumed() throws Exception {
+        XmlIterable records = Xml.filter("record").iterate(trackedUrl());
+        try (Stream<Element> stream = records.stream()) {
+            Stream<String> ids = stream.map(e -> e.attr("id"));
+            assertThat(opened.get()).isFalse();
+            assertThat(ids.limit(2)).containsExactly("0", "1");
+            assertThat(opened.get()).isTrue();
+        }
+        assertThat(closed.get()).isTrue();
+
+        opened.set(false);
+        closed.set(false);
+        records.parallelStream().close();
+        assertThat(opened.get()).isFalse();
+        assertThat(closed.get()).isFalse();
+    }
+
+    @Test
+    public void shouldCloseInputWhenIteratorIsClosed() throws Exception {
+        ParserSettings nativeParser = ParserSettings.DEFAULT.withNativeParser(true);
+        try (XmlIterator iterator = Xml.filter("record").iterate(trackedUrl(), nativeParser).iterator()) {
+            assertThat(iterator.next().attr("id")).isEqualTo("0");
+        }
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    public void shouldCloseInputAtEndOfDocument() throws Exception {
+        XmlIterator iterator = Xml.filter("record").iterate(trackedUrl()).iterator();
+        for (int i = 0; i < 499; i++) {
+            iterator.next();
+        }
+        assertThat(closed.get()).isFalse();
+        iterator.next();
+        assertThat(closed.get()).isTrue();
+        assertThat(iterator.hasNext()).isFalse();
+    }
+
+    @Test
+    public void shouldStreamSameElementsAsSearch() {
+        Document doc = Xml.xml("<orders>"
+                + "<order id='o1' class='rush'><item>a</item><box><item>b<item>c</item></item></box></order>"
+                + "<note><order id='o2'><item>d</item></order></note>"
+                + "<order id='o3'><item>e</item><item>f</item></order>"
+                + "</orders>");
+        Object[][] paths = {
+                { "...", "order", "item" }, { "...", "item" }, { "...", "order", "...", "item" },
+                { "order", 1, "item" }, { "order", "item", 1 }, { "...", "order.rush", "box", "...", "item" },
+                { "note", "...", "order#o2", "item" }, { "...", "box", "item", "item" } };
+        for (Object[] path : paths) {
+            List<String> streamed = new ArrayList<>();
+            for (Element element : Xml.compile(path).iterate(new StringReader(doc.toXML()))) {
+                streamed.add(element.toXML());
+            }
+            assertThat(streamed).as(java.util.Arrays.toString(path))
+                .isEqualTo(doc.find(path).elements().stream().map(Element::toXML).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void shouldStreamElementsReachedByNestedMatchesOnce() {
+        Document doc = Xml.xml("<root><a id='outer'><a id='inner'><b id='1' /></a><b id='2' /></a></root>");
+        Object[] path = { "...", "a", "...", "b" };
+        assertThat(doc.find(path).elements().stream().map(e -> e.attr("id")).collect(Collectors.toList()))
+            .containsExactly("1", "2", "1");
+        assertThat(Xml.compile(path).iterate(new StringReader(doc.toXML())).stream()
+                .map(e -> e.attr("id")).collect(Collectors.toList()))
+            .containsExactly("1", "2");
+    }
+
+    @Test
+    public void shouldSkipBranchesThatCantMatch() throws Exception {
+        StringBuilder xml = new StringBuilder("<catalogue>\n<archive>\n");
+        for (int i = 0; i < 3000; i++) {
+            xml.append("<old n='").append(i).append("' note='a > b, \"/>\"'><![CDATA[<record>]]>")
+                .append("<!-- <record> --><?pi <record>?><u:unbound>text\n</u:unbound><empty/></old>\n");
+        }
+        xml.append("</archive>\n<current><record>1</record><skip><record>no</record></skip><record>2</record></current>\n</catalogue>");
+        assertThat(xml.length()).isGreaterThan(128 * 1024);
+
+        Path file = Files.createTempFile("eaxy-skip", ".xml");
+        try {
+            Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+            ElementQuery query = Xml.compile("current", "record");
+            // Names in skipped branches are not resolved, so the unbound prefix is no problem
+            assertThat(elements(query.iterate(file))).containsExactly("<record>1</record>@6004", "<record>2</record>@6004");
+            assertThat(elements(query.iterate(file.toUri().toURL(), ParserSettings.DEFAULT.withNativeParser(true))))
+                .containsExactly("<record>1</record>@6004", "<record>2</record>@6004");
+        } finally {
+            Files.delete(file);
+        }
+        String balanced = xml.toString().replace("u:unbound", "unbound");
+        assertThat(elements(Xml.compile("current", "record").iterate(new StringReader(balanced))))
+            .containsExactly("<record>1</record>@6004", "<record>2</record>@6004");
+    }
+
+    @Test
+    public void shouldOnlyKeepProjectedDescendants() {
+        String xml = "<Katalog><Oppf>"
+                + "<Legemiddelpakning id='1'>text<Atc V='N02' /><NavnFormStyrke>Paracet 500</NavnFormStyrke>"
+                + "<Pakningsinfo><Mengde>20</Mengde><Enhet>stk</Enhet></Pakningsinfo>"
+                + "<Refusjon><Atc V='N03' /></Refusjon><Empty><Nothing /></Empty></Legemiddelpakning>"
+                + "</Oppf></Katalog>";
+        ElementQuery query = Xml.compile("...", "Legemiddelpakning");
+        assertThat(query.iterate(new StringReader(xml)).project("Atc", "NavnFormStyrke").iterator().next().toXML())
+            .isEqualTo("<Legemiddelpakning id=\"1\"><Atc V=\"N02\" /><NavnFormStyrke>Paracet 500</NavnFormStyrke></Legemiddelpakning>");
+        assertThat(query.iterate(new StringReader(xml)).project(Xml.compile("Pakningsinfo", "Mengde")).project(Xml.compile("...", "Atc"))
+                .iterator().next().toXML())
+            .isEqualTo("<Legemiddelpakning id=\"1\"><Atc V=\"N02\" /><Pakningsinfo><Mengde>20</Mengde></Pakningsinfo>"
+                    + "<Refusjon><Atc V=\"N03\" /></Refusjon></Legemiddelpakning>");
+        // Without "..." the match can't nest, and the projection is done while parsing
+        assertThat(Xml.compile("Oppf", "Legemiddelpakning").iterate(new StringReader(xml))
+                .project(Xml.compile("Pakningsinfo", "Mengde")).project(Xml.compile("...", "Atc")).iterator().next().toXML())
+            .isEqualTo("<Legemiddelpakning id=\"1\"><Atc V=\"N02\" /><Pakningsinfo><Mengde>20</Mengde></Pakningsinfo>"
+                    + "<Refusjon><Atc V=\"N03\" /></Refusjon></Legemiddelpakning>");
+    }
+
+    @Test
+    public void shouldProjectMatchesInsideMatch() {
+        String xml = "<root><item id='outer'><name>a</name><note /><item id='inner'><name>b</name></item></item></root>";
+        assertThat(Xml.filter("...", "item").iterate(new StringReader(xml)).project("name").stream()
+                .map(Element::toXML).collect(Collectors.toList()))
+            .containsExactly("<item id=\"outer\"><name>a</name></item>", "<item id=\"inner\"><name>b</name></item>");
+    }
+
+    @Test
+    public void shouldOnlyReturnElementsMeetingConditions() throws Exception {
+        StringBuilder xml = new StringBuilder("<Katalog>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<Pakning id='").append(i).append("'>")
+                .append(i % 10 == 9 ? "" : "<Atc V='" + (i % 10 == 0 ? "N06BA04" : "A01") + "' />")
+                .append("<Navn>Name ").append(i).append("</Navn>")
+                .append("<Info><u:unbound>Lots of details</u:unbound><Atc V='N06BA04' /></Info>")
+                .append("</Pakning>");
+        }
+        xml.append("</Katalog>");
+        Path file = Files.createTempFile("eaxy-where", ".xml");
+        try {
+            Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+            List<String> tested = new ArrayList<>();
+            XmlIterable ritalin = Xml.filter("Pakning").iterate(file).where("Atc", atc -> {
+                tested.add(atc.attr("V"));
+                return atc.attr("V").equals("N06BA04");
+            });
+            // The details of rejected elements are skipped, so the unbound prefix doesn't matter there
+            List<String> ids = new ArrayList<>();
+            for (Element element : ritalin.project("Navn")) {
+                ids.add(element.attr("id"));
+                assertThat(element.toXML()).isEqualTo("<Pakning id=\"" + element.attr("id") + "\"><Navn>Name " + element.attr("id") + "</Navn></Pakning>");
+            }
+            assertThat(ids).hasSize(10).startsWith("0", "10", "20");
+            assertThat(tested).hasSize(90);
+
+            assertThat(Xml.filter("Pakning").iterate(file).where("Navn", navn -> navn.text().endsWith("0"))
+                    .where(Xml.compile("Atc"), atc -> atc.attr("V").equals("N06BA04")).project("Navn").stream()
+                    .map(e -> e.attr("id")).collect(Collectors.toList()))
+                .hasSize(10).startsWith("0", "10");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldDecideConditionsNestedInAnotherCondition() {
+        String xml = "<recs><rec id='1'><a v='x'><b>keep1</b></a></rec>"
+                + "<rec id='2'><a v='x'><b>no</b></a></rec>"
+                + "<rec id='3'><a v='y'><b>keep1</b></a></rec></recs>";
+        assertThat(Xml.filter("rec").iterate(new StringReader(xml))
+                .where("a", a -> "x".equals(a.attr("v")))
+                .where(Xml.compile("a", "b"), b -> b.text().equals("keep1"))
+                .stream().map(e -> e.attr("id")).collect(Collectors.toList()))
+            .containsExactly("1");
+        assertThat(Xml.filter("rec").iterate(new StringReader(xml))
+                .where(Xml.compile("a", "b"), b -> b.text().equals("keep1"))
+                .where("a", a -> "x".equals(a.attr("v")))
+                .stream().map(e -> e.attr("id")).collect(Collectors.toList()))
+            .containsExactly("1");
+    }
+
+    @Test
+    public void shouldFilterMatchesInsideRejectedMatch() {
+        String xml = "<root><item id='outer'><Atc V='x'/><item id='inner'><Atc V='y'/></item></item>"
+                + "<item id='other'><item id='nested'><Atc V='y'/></item><Atc V='y'/></item></root>";
+        ElementQuery query = Xml.filter("...", "item");
+        Document doc = Xml.xml(xml);
+        List<String> expected = doc.find(query).elements().stream()
+                .filter(e -> e.find("Atc").isPresent() && e.find("Atc").first().attr("V").equals("y"))
+                .map(e -> e.attr("id")).collect(Collectors.toList());
+        assertThat(expected).containsExactly("inner", "other", "nested");
+        assertThat(query.iterate(new StringReader(xml)).where("Atc", a -> "y".equals(a.attr("V"))).stream()
+                .map(e -> e.attr("id")).collect(Collectors.toList()))
+            .isEqualTo(expected);
+    }
+
+    private static List<String> elements(Iterable<Element> elements) {
+        List<String> result = new ArrayList<>();
+        for (Element element : elements) {
+            result.add(element.toXML() + "@" + element.toString().replaceAll(".*@", ""));
+        }
+        return result;
+    }
+
+    private URL trackedUrl() throws Exception {
+        return new URL(null, "test:records.xml", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) {
+                return new URLConnection(u) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        opened.set(true);
+                        return new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)) {
+                            @Override
+                            public void close() {
+                                closed.set(true);
+                            }
+                        };
+                    }
+                };
+            }
+        });
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class XmlPushParserTest {
+
+    private static final String XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<!-- orders --><orders xmlns='urn:orders'>\n"
+            + "  <order id='1'><line>nørwægiån &amp; more</line><![CDATA[<raw>]]></order>\n"
+            + "  <archive><order id='old'><line>skipped</line></order></archive>\n"
+            + "  <order id='2'><line>two</line><order id='2.1'/></order>\n"
+            + "</orders>";
+
+    @Test
+    public void shouldBuildDocumentFromSmallChunks() {
+        List<Document> documents = new ArrayList<>();
+        XmlPushParser parser = XmlPushParser.document(documents::add);
+        byte[] bytes = XML.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            buffer.clear();
+            buffer.put(bytes, i, Math.min(3, bytes.length - i)).flip();
+            parser.feed(buffer);
+            assertThat(documents).isEmpty();
+        }
+        parser.endOfInput();
+        assertThat(parser.isDone()).isTrue();
+        assertThat(documents).hasSize(1);
+        assertThat(documents.get(0).toXML()).isEqualTo(Utf8Reader.read(bytes).toXML());
+    }
+
+    @Test
+    public void shouldPassMatchingElementsAsTheyComplete() {
+        List<String> ids = new ArrayList<>();
+        XmlPushParser parser = XmlPushParser.elements(Xml.compile("order"), e -> ids.add(e.attr("id")));
+        String[] parts = XML.split("(?<=<line>)");
+        parser.feed(ByteBuffer.wrap(parts[0].getBytes(StandardCharsets.UTF_8)));
+        assertThat(ids).isEmpty();
+        parser.feed(ByteBuffer.wrap(parts[1].getBytes(StandardCharsets.UTF_8)));
+        assertThat(ids).containsExactly("1");
+        for (int i = 2; i < parts.length; i++) {
+            parser.feed(ByteBuffer.wrap(parts[i].getBytes(StandardCharsets.UTF_8)));
+        }
+        assertThat(ids).containsExactly("1", "2");
+        assertThat(parser.isDone()).isFalse();
+        parser.endOfInput();
+        assertThat(parser.isDone()).isTrue();
+
+        List<String> all = new ArrayList<>();
+        XmlPushParser descendants = XmlPushParser.elements(Xml.compile("...", "order"), e -> all.add(e.attr("id")));
+        for (byte b : XML.getBytes(StandardCharsets.UTF_8)) {
+            descendants.feed(ByteBuffer.wrap(new byte[] { b }));
+        }
+        descendants.endOfInput();
+        assertThat(all).containsExactly("1", "old", "2", "2.1");
+    }
+
+    @Test
+    public void shouldReportIncompleteDocument() {
+        XmlPushParser parser = XmlPushParser.elements(Xml.compile("order"), e -> {});
+        parser.feed(ByteBuffer.wrap("<orders><order>".getBytes(StandardCharsets.UTF_8)));
+        try {
+            parser.endOfInput();
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("end of document");
+        }
+    }
+
+    @Test
+    public void shouldRejectOtherEncodings() {
+        XmlPushParser parser = XmlPushParser.document(d -> fail("Unexpected document"));
+        try {
+            parser.feed(ByteBuffer.wrap("<?xml version='1.0' encoding='ISO-8859-1'?><a/>".getBytes(StandardCharsets.ISO_8859_1)));
+            fail("Expected exception");
+        } catch (MalformedXMLException e) {
+            assertThat(e.getMessage()).contains("ISO-8859-1");
+        }
+    }
+
+}
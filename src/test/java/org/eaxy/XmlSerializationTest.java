@@ -3,12 +3,16 @@ package org.eaxy;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import org.assertj.core.api.StringAssert;
 import org.eaxy.utils.IOUtils;
 import org.junit.Test;
@@ -44,6 +48,43 @@ public class XmlSerializationTest {
         }
     }
 
+    @Test
+    public void shouldReadWithNativeParser() throws Exception {
+        Document doc = Utf8Reader.read(Files.readAllBytes(xmlFile.toPath()));
+        assertThat(normalize(doc.copy().toXML()))
+            .isEqualTo(normalize(IOUtils.slurp(xmlFile)));
+    }
+
+    @Test
+    public void shouldStreamWithNativeParser() throws Exception {
+        try(InputStream input = new FileInputStream(xmlFile)) {
+            Document doc = Utf8Reader.read(input, null, ParserSettings.DEFAULT);
+            assertThat(doc.toXML()).isEqualTo(Xml.read(xmlFile).toXML());
+        }
+    }
+
+    @Test
+    public void shouldReadMappedFile() throws Exception {
+        assertThat(Xml.read(xmlFile.toPath()).toXML()).isEqualTo(Xml.read(xmlFile).toXML());
+    }
+
+    @Test
+    public void shouldWriteBytes() throws Exception {
+        Document doc = Xml.read(xmlFile);
+        byte[] expected = doc.toXML().getBytes(doc.getEncoding());
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        doc.writeTo(stream);
+        assertThat(stream.toByteArray()).isEqualTo(expected);
+
+        ByteArrayOutputStream channelOutput = new ByteArrayOutputStream();
+        doc.writeTo(Channels.newChannel(channelOutput));
+        assertThat(channelOutput.toByteArray()).isEqualTo(expected);
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        doc.writeTo(buffer);
+        assertThat(buffer.array()).isEqualTo(expected);
+    }
+
     private InputStreamReader input() throws FileNotFoundException {
         return new InputStreamReader(new FileInputStream(xmlFile));
     }
@@ -71,6 +112,16 @@ public class XmlSerializationTest {
         assertThat(elementCount).isEqualTo(Xml.read(xmlFile).find(filter).size());
     }
 
+    @Test
+    public void shouldIterateMappedFile() throws IOException {
+        int elementCount = 0;
+        ElementQuery filter = Xml.filter("*");
+        for (@SuppressWarnings("unused") Element element : filter.iterate(xmlFile.toPath())) {
+            elementCount++;
+        }
+        assertThat(elementCount).isEqualTo(Xml.read(xmlFile).find(filter).size());
+    }
+
     private StringAssert assertEquals(Document document, String fileContents) {
         return (StringAssert) assertThat(normalize(document.toXML()))
             .isEqualTo(normalize(fileContents));
@@ -0,0 +1,86 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.eaxy.Xml.el;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XmlStreamWriterTest {
+
+    private static final Namespace SOAP = new Namespace("http://schemas.xmlsoap.org/soap/envelope/", "S");
+    private static final Namespace ORDERS = new Namespace("http://example.com/orders");
+
+    private final Element order = ORDERS.el("order", ORDERS.el("item", "Blåbær & fløte"), ORDERS.el("note"))
+            .attr("id", "o1");
+
+    private Document expected() {
+        return new Document(SOAP.el("Envelope",
+                SOAP.el("Body", ORDERS.el("orders",
+                        ORDERS.el("order", ORDERS.el("item", "Blåbær & fløte"), ORDERS.el("note")).attr("id", "o1"),
+                        order.copy(),
+                        Xml.comment("the end")))));
+    }
+
+    private void writeStreamed(XmlStreamWriter writer) throws IOException {
+        writer.declaration()
+            .start(new QualifiedName(SOAP, "Envelope"))
+            .start(new QualifiedName(SOAP, "Body"))
+            .start(new QualifiedName(ORDERS, "orders"))
+            .start(new QualifiedName(ORDERS, "order")).attr("id", "o1")
+                .start(new QualifiedName(ORDERS, "item")).text("Blåbær & fløte").end()
+                .start(new QualifiedName(ORDERS, "note")).end()
+            .end()
+            .element(order)
+            .comment("the end");
+    }
+
+    @Test
+    public void shouldWriteLikeTree() throws IOException {
+        StringWriter result = new StringWriter();
+        try (XmlStreamWriter writer = XmlStreamWriter.open(result)) {
+            writeStreamed(writer);
+        }
+        assertThat(result.toString()).isEqualTo(expected().toXML());
+    }
+
+    @Test
+    public void shouldIndentLikeTree() throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (XmlStreamWriter writer = XmlStreamWriter.open(result).indent("  ")) {
+            writeStreamed(writer);
+        }
+        assertThat(new String(result.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(expected().toIndentedXML());
+    }
+
+    @Test
+    public void shouldDeclareNamespacesAndEscapeAttributes() throws IOException {
+        StringWriter result = new StringWriter();
+        Namespace xlink = new Namespace("http://www.w3.org/1999/xlink", "xlink");
+        try (XmlStreamWriter writer = XmlStreamWriter.open(result)) {
+            writer.start("links").namespace(xlink)
+                .start("a").attr(new QualifiedName(xlink, "href"), "?a=1&b=\"2\"").text("x < y").end()
+                .element(el("b", xlink.el("c")))
+                .cdata("<raw>");
+        }
+        assertThat(result.toString()).isEqualTo("<links xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                + "<a xlink:href=\"?a=1&amp;b=&quot;2&quot;\">x &lt; y</a>"
+                + "<b><xlink:c /></b><![CDATA[<raw>]]></links>");
+    }
+
+    @Test
+    public void shouldRejectMisplacedCalls() throws IOException {
+        XmlStreamWriter writer = XmlStreamWriter.open(new StringWriter());
+        assertThatThrownBy(writer::end).isInstanceOf(IllegalStateException.class);
+        writer.start("root").text("text");
+        assertThatThrownBy(() -> writer.attr("late", "value")).isInstanceOf(IllegalStateException.class);
+        writer.close();
+        assertThatThrownBy(() -> writer.start("more")).isInstanceOf(IllegalStateException.class);
+    }
+
+}
@@ -1,12 +1,20 @@
 package org.eaxy.usage;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.eaxy.Xml.attr;
 import static org.eaxy.Xml.el;
 import static org.eaxy.Xml.text;
 import static org.eaxy.Xml.xml;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +23,7 @@ import org.eaxy.Document;
 import org.eaxy.Element;
 import org.eaxy.MalformedXMLException;
 import org.eaxy.Namespace;
+import org.eaxy.ParserSettings;
 import org.eaxy.QualifiedName;
 import org.eaxy.StaxReader;
 import org.eaxy.Xml;
@@ -125,6 +134,16 @@ public class ElementBuilderTest {
                     "</a:Ancestor>");
     }
 
+    @Test
+    public void shouldRedeclareReboundPrefix() {
+        Namespace OLD_NS = new Namespace("http://old.com", "p");
+        Namespace NEW_NS = new Namespace("http://new.com", "p");
+        assertThat(OLD_NS.el("Root", NEW_NS.el("Child", OLD_NS.el("GrandChild")), OLD_NS.el("Sibling")).toXML())
+            .isEqualTo("<p:Root xmlns:p=\"http://old.com\">" +
+                    "<p:Child xmlns:p=\"http://new.com\"><p:GrandChild xmlns:p=\"http://old.com\" /></p:Child>" +
+                    "<p:Sibling /></p:Root>");
+    }
+
     @Test
     public void shouldPrintSiblingNamespaces() {
         Namespace SOAP_NS = new Namespace("http://soap.com", "S");
@@ -132,6 +151,33 @@ public class ElementBuilderTest {
             .isEqualTo("<Super><S:Envelope xmlns:S=\"http://soap.com\" /><S:Body xmlns:S=\"http://soap.com\" /></Super>");
     }
 
+    @Test
+    public void shouldEscapeLongTextAndAttributes() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("a < b & \"c\" > d ");
+        }
+        Element element = el("Element", text.toString()).attr("value", text.toString());
+        String escapedText = text.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        assertThat(element.toXML())
+            .isEqualTo("<Element value=\"" + escapedText.replace("\"", "&quot;") + "\">" + escapedText + "</Element>");
+    }
+
+    @Test
+    public void shouldWriteUtf8Bytes() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("bl\u00e5b\u00e6r \u20ac & \ud83d\ude00 ");
+        }
+        Document doc = new Document(el("Element", text.toString()).attr("price", "\u20ac \"5\""));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        doc.writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(doc.toXML().getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        assertThatThrownBy(() -> doc.writeTo(buffer)).isInstanceOf(BufferOverflowException.class);
+    }
+
     @Test
     public void shouldEscapeHtmlCharacters() {
         Element element = el("Element", "Text with <, > and &");
@@ -182,6 +228,32 @@ public class ElementBuilderTest {
         xml("<first-root /><second-root />");
     }
 
+    @Test
+    public void nativeParserShouldRejectMalformedXml() throws IOException {
+        ParserSettings nativeParser = ParserSettings.DEFAULT.withNativeParser(true);
+        for (String malformed : new String[] { "<unclosed-element>Unclosed",
+                "<open-tag>Malformed</close-tag>", "<first-root /><second-root />",
+                "<a>x]]>y</a>", "<a$b/>", "<a b$c='1'/>" }) {
+            assertThatThrownBy(() -> xml(malformed, nativeParser))
+                .as(malformed).isInstanceOf(MalformedXMLException.class);
+        }
+        Path file = Files.createTempFile("eaxy-malformed", ".xml");
+        try {
+            for (byte[] invalidUtf8 : new byte[][] { { (byte) 0xC3, 0x28 }, { (byte) 0xC0, (byte) 0xAF },
+                    { (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, { (byte) 0xE2, (byte) 0x82 } }) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                bytes.write("<a>".getBytes(StandardCharsets.UTF_8));
+                bytes.write(invalidUtf8);
+                bytes.write("</a>".getBytes(StandardCharsets.UTF_8));
+                Files.write(file, bytes.toByteArray());
+                assertThatThrownBy(() -> Xml.read(file))
+                    .as(Arrays.toString(invalidUtf8)).isInstanceOf(MalformedXMLException.class);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
     @Test
     public void shouldUseNamespacesDeclaredInParent() {
         Namespace SOAP_NS = new Namespace("http://soap.com", "S");
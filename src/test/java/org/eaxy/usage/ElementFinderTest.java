@@ -13,6 +13,7 @@ import java.net.URL;
 import java.util.Objects;
 
 import org.eaxy.Element;
+import org.eaxy.ElementQuery;
 import org.eaxy.Namespace;
 import org.eaxy.NonMatchingPathException;
 import org.eaxy.Xml;
@@ -53,6 +54,41 @@ public class ElementFinderTest {
         assertThat(xml.find("p").check().texts()).containsExactly("first para", "second para", "para with bold text");
     }
 
+    @Test
+    public void shouldFindElementsAmongTextAfterChanges() {
+        Element xml = el("div", text("before "), el("p", "one"), text(" between "), el("span", el("p", "two")));
+        xml.children().add(1, el("p", "zero"));
+        xml.delete(el("span"));
+        xml.add(el("section", text("text "), el("p", "three")));
+        assertThat(xml.find("p").texts()).containsExactly("zero", "one");
+        assertThat(xml.find("...", "p").texts()).containsExactly("zero", "one", "three");
+    }
+
+    @Test
+    public void shouldReuseCompiledQuery() {
+        ElementQuery query = Xml.compile("...", "message[name=x]", "part");
+        // The cache is shared and cleared when full, so only the compiled path is compared
+        assertThat(Xml.compile("...", "message[name=x]", "part")).hasToString(query.toString());
+        Element first = el("definitions", el("message", Xml.attr("name", "x"), el("part", "one")));
+        Element second = el("definitions", el("types", el("message", Xml.attr("name", "x"), el("part", "two"))),
+                el("message", Xml.attr("name", "y"), el("part", "three")));
+        assertThat(first.find(query).texts()).containsExactly("one");
+        assertThat(second.find(query).texts()).containsExactly("two");
+        assertThat(second.find("...", "message[name=y]", "part").single().text()).isEqualTo("three");
+    }
+
+    @Test
+    public void shouldFindDescendantsInVeryDeepDocument() {
+        Element leaf = el("leaf", "bottom");
+        Element xml = el("level", leaf);
+        for (int i = 0; i < 20000; i++) {
+            xml = el(i % 2 == 0 ? "even" : "odd", xml);
+        }
+        assertThat(xml.find("...", "leaf").single().text()).isEqualTo("bottom");
+        assertThat(xml.find("...", "level", "leaf").getPaths().get(0).getPath()).hasSize(20001);
+        assertThat(xml.find("...", "odd", "even").size()).isEqualTo(9999);
+    }
+
     @Test
     public void shouldFindDeeplyNestedElements() {
         Element xml = el("div",
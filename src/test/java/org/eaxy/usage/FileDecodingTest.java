@@ -1,5 +1,6 @@
 package org.eaxy.usage;
 
+import org.eaxy.ParserSettings;
 import org.eaxy.Xml;
 import org.junit.After;
 import org.junit.BeforeClass;
@@ -44,6 +45,16 @@ public class FileDecodingTest {
         assertThat(result).contains("nørwægiån");
     }
 
+    @Test
+    public void nativeParserShouldReadUtf8DespiteDefault() throws IOException, URISyntaxException {
+        setSystemDefaultEncoding("ISO-8859-1");
+        File file = new File(getClass().getResource("/testdocument.html").toURI());
+
+        String result = Xml.read(file, ParserSettings.DEFAULT.withNativeParser(true)).toXML();
+
+        assertThat(result).contains("nørwægiån");
+    }
+
     private static void setSystemDefaultEncoding(String encoding) {
         System.setProperty("file.encoding", encoding);
         invalidateFieldCache(Charset.class, "defaultCharset");